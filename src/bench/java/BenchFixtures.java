@@ -0,0 +1,149 @@
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.Word;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Workloads for the JMH benchmarks in src/bench/java/bench, built from the pages in random_manga_images/
+ * (paths are relative to the working directory, like everywhere else).
+ *
+ * JMH won't generate benchmarks for classes in the default package, and classes in a named package
+ * can't refer to ours, so each workload is built here and handed over as an IntFunction:
+ * the benchmark calls apply(i) for its i-th operation, and each operation works on the next
+ * of a fixed set of inputs, prepared in advance.
+ */
+public class BenchFixtures {
+    private static final String PAGE_DIR = "random_manga_images";
+    private static final int MAX_BOXES = 32;
+    private static final String[] WORDS = (
+            "I told you already the candy shop is closed on Sundays but nobody ever listens to me " +
+            "what are you doing here at this hour wait is that my umbrella"
+    ).split(" ");
+
+    /**
+     * @return index of the input for the i-th operation, even once i has wrapped around
+     */
+    private static int next(int i, int inputs) {
+        return (i & Integer.MAX_VALUE) % inputs;
+    }
+
+    private static BufferedImage readPage(String page) throws IOException {
+        File f = new File(PAGE_DIR, page);
+        BufferedImage img = ImageIO.read(f);
+        if (img == null) {
+            throw new IOException("can't read page " + f);
+        }
+        return img;
+    }
+
+    /**
+     * Text box sized boxes in the middle of the page's speech bubble candidates, the kind of box
+     * OCR gives the detector. Pages without candidates get a grid of boxes instead.
+     */
+    static List<Rectangle> textBoxes(BufferedImage img) {
+        List<Rectangle> boxes = new ArrayList<>();
+        for (BubbleSegmentation.Bubble bubble : new BubbleSegmentation(img).getBubbles()) {
+            Rectangle b = bubble.bounds;
+            int cx = (b.xmin() + b.xmax()) / 2, cy = (b.ymin() + b.ymax()) / 2;
+            int w = Math.max(b.width() / 6, 1), h = Math.max(b.height() / 6, 1);
+            boxes.add(new Rectangle(cx - w, cy - h, cx + w, cy + h));
+            if (boxes.size() == MAX_BOXES) {
+                break;
+            }
+        }
+        for (int y = img.getHeight() / 8; boxes.isEmpty() && y < img.getHeight(); y += img.getHeight() / 4) {
+            for (int x = img.getWidth() / 8; x < img.getWidth(); x += img.getWidth() / 4) {
+                boxes.add(new Rectangle(x, y, x + 10, y + 20));
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * SpeechBubbleDetector.getLargestExpansion of each text box of the page in turn
+     */
+    public static IntFunction<Object> largestExpansion(String page) throws IOException {
+        BufferedImage img = readPage(page);
+        SpeechBubbleDetector detector = new SpeechBubbleDetector(img);
+        Rectangle[] boxes = textBoxes(img).toArray(new Rectangle[0]);
+        return i -> detector.getLargestExpansion(boxes[next(i, boxes.length)]);
+    }
+
+    /**
+     * SpeechBubbleDetector.fixParagraph of each text box of the page in turn
+     */
+    public static IntFunction<Object> fixParagraph(String page) throws IOException {
+        BufferedImage img = readPage(page);
+        SpeechBubbleDetector detector = new SpeechBubbleDetector(img);
+        Rectangle[] boxes = textBoxes(img).toArray(new Rectangle[0]);
+        return i -> detector.fixParagraph(boxes[next(i, boxes.length)]);
+    }
+
+    /**
+     * TextRecognizerGoogle.joinAllParagraphs of a page crowded with small, mostly overlapping
+     * vertical text paragraphs (random, but the same every run)
+     *
+     * @param count paragraphs on the page
+     */
+    public static IntFunction<Object> joinAllParagraphs(int count) {
+        Random random = new Random(count);
+        List<Paragraph> paragraphs = new ArrayList<>();
+        int width = 1000, height = 1500;
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(width - 60), y = random.nextInt(height - 200);
+            Rectangle box = new Rectangle(x, y, x + 20 + random.nextInt(40), y + 40 + random.nextInt(160));
+            Paragraph.Builder p = Paragraph.newBuilder().setBoundingBox(box.toBoundingPoly());
+            for (int w = 1 + random.nextInt(4); w > 0; w--) {
+                p.addWords(Word.newBuilder()
+                        .setBoundingBox(box.toBoundingPoly())
+                        .addSymbols(Symbol.newBuilder().setText("あ"))
+                        .addSymbols(Symbol.newBuilder().setText("い")));
+            }
+            paragraphs.add(p.build());
+        }
+        TextRecognizerGoogle recognizer = new TextRecognizerGoogle(Language.JPN);
+        return i -> recognizer.joinAllParagraphs(paragraphs);
+    }
+
+    /**
+     * TextProcessor.resizeToFit of English text into each of the page's expanded text boxes in turn,
+     * starting from the font ImageWriter starts from
+     *
+     * @param lineBreaking name of a LineBreaking
+     */
+    public static IntFunction<Object> resizeToFit(String page, String lineBreaking) throws IOException {
+        BufferedImage img = readPage(page);
+        SpeechBubbleDetector detector = new SpeechBubbleDetector(img);
+        List<Rectangle> boxes = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        Random random = new Random(21);
+        for (Rectangle box : textBoxes(img)) {
+            boxes.add(detector.getLargestExpansion(box));
+            StringBuilder text = new StringBuilder();
+            for (int w = 3 + random.nextInt(25); w > 0; w--) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            texts.add(text.toString().trim());
+        }
+
+        Font start = FontRegistry.getShared().getFont("animeace");
+        Graphics2D g2 = img.createGraphics();
+        TextProcessor txtProcessor = new TextProcessor(g2);
+        txtProcessor.setLineBreaking(LineBreaking.valueOf(lineBreaking));
+        return i -> {
+            int k = next(i, boxes.size());
+            g2.setFont(start);
+            txtProcessor.resizeToFit(texts.get(k), boxes.get(k));
+            return txtProcessor.getFont();
+        };
+    }
+}
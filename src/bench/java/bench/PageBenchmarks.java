@@ -0,0 +1,114 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Time per operation of bubble detection, paragraph joining and text fitting, on the pages in
+ * random_manga_images/. Run from the repository root:
+ *
+ *      mvn -P bench package
+ *      java -jar target/benchmarks.jar -prof gc
+ *
+ * -prof gc adds the allocation rate, and gc.alloc.rate.norm the bytes allocated per operation.
+ *
+ * The workloads themselves are in BenchFixtures (default package, like the code they run);
+ * they're looked up once per trial, outside of what's measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageBenchmarks {
+
+    @SuppressWarnings("unchecked")
+    static IntFunction<Object> workload(String name, Object... args) throws Exception {
+        for (Method m : Class.forName("BenchFixtures").getMethods()) {
+            if (m.getName().equals(name) && m.getParameterCount() == args.length) {
+                return (IntFunction<Object>) m.invoke(null, args);
+            }
+        }
+        throw new NoSuchMethodException("BenchFixtures." + name);
+    }
+
+    @State(Scope.Thread)
+    public static class Detection {
+        @Param({"easy/dagashi.jpeg", "hoshino.jpeg", "medium/watari_4.jpeg"})
+        public String page;
+
+        IntFunction<Object> largestExpansion;
+        IntFunction<Object> fixParagraph;
+        int i;
+
+        @Setup
+        public void setup() throws Exception {
+            largestExpansion = workload("largestExpansion", page);
+            fixParagraph = workload("fixParagraph", page);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Joining {
+        @Param({"50", "200", "1000"})
+        public int paragraphs;
+
+        IntFunction<Object> joinAllParagraphs;
+        int i;
+
+        @Setup
+        public void setup() throws Exception {
+            joinAllParagraphs = workload("joinAllParagraphs", paragraphs);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Fitting {
+        @Param({"easy/dagashi.jpeg", "hoshino.jpeg"})
+        public String page;
+
+        @Param({"GREEDY", "BALANCED"})
+        public String lineBreaking;
+
+        IntFunction<Object> resizeToFit;
+        int i;
+
+        @Setup
+        public void setup() throws Exception {
+            resizeToFit = workload("resizeToFit", page, lineBreaking);
+        }
+    }
+
+    @Benchmark
+    public Object getLargestExpansion(Detection state) {
+        return state.largestExpansion.apply(state.i++);
+    }
+
+    @Benchmark
+    public Object fixParagraph(Detection state) {
+        return state.fixParagraph.apply(state.i++);
+    }
+
+    @Benchmark
+    public Object joinAllParagraphs(Joining state) {
+        return state.joinAllParagraphs.apply(state.i++);
+    }
+
+    @Benchmark
+    public Object resizeToFit(Fitting state) {
+        return state.resizeToFit.apply(state.i++);
+    }
+}
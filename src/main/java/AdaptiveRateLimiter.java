@@ -0,0 +1,131 @@
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.BaseServiceException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket for requests to a service with a quota: requests go out at the current rate on average,
+ * with up to a second's worth at once after a quiet spell.
+ *
+ * The rate adapts to the service, the way TCP's congestion window does (additive increase,
+ * multiplicative decrease): every request that succeeds raises it by 1/rate, about one more request
+ * per second every second, and every time the service pushes back (429 Too Many Requests,
+ * 503 Unavailable) it halves, at most once a second, so failures from one burst only count once.
+ * It settles just under the quota, wherever that is.
+ */
+public class AdaptiveRateLimiter {
+    private static final long COOL_DOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double minPerSecond, maxPerSecond;
+    private double rate;
+    private double tokens;
+    private long refilled;
+    private long cut;
+
+    /**
+     * @param initialPerSecond rate to start at
+     * @param minPerSecond rate never goes below this, however often the service pushes back
+     * @param maxPerSecond rate never goes above this, however well things go
+     */
+    public AdaptiveRateLimiter(double initialPerSecond, double minPerSecond, double maxPerSecond) {
+        if ( ! (0 < minPerSecond && minPerSecond <= initialPerSecond && initialPerSecond <= maxPerSecond) ) {
+            throw new IllegalArgumentException("need 0 < min <= initial <= max rate");
+        }
+        this.minPerSecond = minPerSecond;
+        this.maxPerSecond = maxPerSecond;
+        this.rate = initialPerSecond;
+        this.tokens = 1;
+        this.refilled = System.nanoTime();
+        this.cut = refilled - COOL_DOWN_NANOS;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) / 1e9 * rate);
+        refilled = now;
+    }
+
+    /**
+     * Wait until a request may go out. Waiting callers are let through in the order they came.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take the next token, without waiting for it (see RemoteCalls.call(call, limiter)).
+     *
+     * @return nanoseconds until the request may go out
+     */
+    public long reserve() {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            // take the token now, even if it's not there yet: whoever comes next waits for the one after
+            tokens -= 1;
+            waitNanos = (tokens >= 0) ? 0 : (long)(-tokens / rate * 1e9);
+        }
+        if (waitNanos > 0) {
+            Metrics.observe("rateLimiter.waitMillis", waitNanos / 1_000_000);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * A request went through: go a little faster.
+     */
+    public synchronized void succeeded() {
+        refill(System.nanoTime());
+        rate = Math.min(maxPerSecond, rate + 1 / rate);
+    }
+
+    /**
+     * The service turned a request down for being one too many: go half as fast,
+     * and don't use up what's left in the bucket.
+     */
+    public synchronized void pushedBack() {
+        long now = System.nanoTime();
+        refill(now);
+        if (now - cut < COOL_DOWN_NANOS) {
+            return;
+        }
+        cut = now;
+        rate = Math.max(minPerSecond, rate / 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * @return requests per second allowed now
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return whether the failure is the service saying to slow down:
+     *          a 429 or 503, or gRPC's RESOURCE_EXHAUSTED or UNAVAILABLE
+     */
+    public static boolean isPushBack(Throwable failure) {
+        Throwable t = RemoteCalls.unwrap(failure);
+        int code = 0;
+        if (t instanceof ServiceException) {
+            code = ((ServiceException) t).getCode();
+        }
+        else if (t instanceof BaseServiceException) {
+            code = ((BaseServiceException) t).getCode();
+        }
+        else if (t instanceof ApiException) {
+            StatusCode.Code status = ((ApiException) t).getStatusCode().getCode();
+            return status == StatusCode.Code.RESOURCE_EXHAUSTED || status == StatusCode.Code.UNAVAILABLE;
+        }
+        return code == 429 || code == 503;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.1f requests/s", rate);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Which pixels of an image are close enough to a given speech bubble background color.
+ *
+ * Asking whether a horizontal or vertical segment is all background scans just that segment,
+ * stopping at the first pixel that isn't: getLargestExpansion asks about every row and column
+ * once, so there's nothing to gain from remembering them.
+ */
+public class BackgroundMask {
+    private final PixelReader pixels;
+    private final int background;
+    private final float allowedError;
+    private final int width, height;
+
+    /**
+     * @param pixels image
+     * @param background speech bubble background color, packed as 0xRRGGBB
+     * @param allowedError largest color difference (see SpeechBubbleDetector.colorDiff) still counted as background
+     */
+    public BackgroundMask(PixelReader pixels, int background, float allowedError) {
+        this.pixels = pixels;
+        this.background = background;
+        this.allowedError = allowedError;
+        this.width = pixels.getWidth();
+        this.height = pixels.getHeight();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public boolean isBackground(int x, int y) {
+        return SpeechBubbleDetector.colorDiff(pixels.rgb(x, y), background) < allowedError;
+    }
+
+    /**
+     * @return whether every pixel of row y from xmin to xmax (inclusive) is background.
+     *          False if any of it is outside the image.
+     */
+    public boolean rowIsBackground(int y, int xmin, int xmax) {
+        if (y < 0 || y >= height || xmin < 0 || xmax >= width) {
+            return false;
+        }
+        for (int x = xmin; x <= xmax; x++) {
+            if ( ! isBackground(x, y) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether every pixel of column x from ymin to ymax (inclusive) is background.
+     *          False if any of it is outside the image.
+     */
+    public boolean columnIsBackground(int x, int ymin, int ymax) {
+        if (x < 0 || x >= width || ymin < 0 || ymax >= height) {
+            return false;
+        }
+        for (int y = ymin; y <= ymax; y++) {
+            if ( ! isBackground(x, y) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Repeatedly joins axis aligned boxes that are within a margin of each other
+ * (or share a non-zero label) until no two can be joined, the way
+ * TextRecognizerGoogle.joinAllParagraphs always has:
+ *
+ *  - boxes are kept in a list, in their original order;
+ *  - the first (i, j) pair in that list, i < j, where some corner of box j lies inside box i
+ *      grown by the margin, is joined into one box at position i;
+ *  - repeat from the top.
+ *
+ * Rather than rescanning all pairs after every join, this only looks at what a join can change:
+ * the joined box may now reach boxes before it (those are checked first, and joined backward),
+ * then boxes after it. Nearby boxes are found through a BoxGrid, so a join costs roughly the
+ * number of boxes around it instead of n^2. The outcome is the same, join for join.
+ *
+ * Boxes are referred to by their index in the input. A group of joined boxes is referred to
+ * by the index of its first member.
+ */
+public class BoxClustering {
+    private final int n;
+    private final int margin;
+    private final int[] xmin, ymin, xmax, ymax;
+    private final int[] labels;
+    private final boolean[] alive;
+    private final int[] next, tail;
+    private final Map<Integer, TreeSet<Integer>> byLabel = new HashMap<>();
+    private final BoxGrid grid;
+
+    /**
+     * Boxes are inclusive on both ends. A box with xmin > xmax or ymin > ymax is taken as the box
+     * between its corners, as the pairwise join read boxes back from their corners: what a polygon
+     * with no vertices aligns to, (INF, INF) - (-INF, -INF), spans everything.
+     *
+     * @param labels boxes sharing a non-zero label are always joined; null for none
+     */
+    public BoxClustering(int[] xmin, int[] ymin, int[] xmax, int[] ymax, int[] labels, int margin) {
+        this.n = xmin.length;
+        this.margin = margin;
+        this.xmin = new int[n];
+        this.ymin = new int[n];
+        this.xmax = new int[n];
+        this.ymax = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.xmin[i] = Math.min(xmin[i], xmax[i]);
+            this.xmax[i] = Math.max(xmin[i], xmax[i]);
+            this.ymin[i] = Math.min(ymin[i], ymax[i]);
+            this.ymax[i] = Math.max(ymin[i], ymax[i]);
+        }
+        this.labels = (labels == null) ? new int[n] : labels.clone();
+        this.alive = new boolean[n];
+        this.next = new int[n];
+        this.tail = new int[n];
+
+        long gxmin = Long.MAX_VALUE, gymin = Long.MAX_VALUE, gxmax = Long.MIN_VALUE, gymax = Long.MIN_VALUE;
+        long sizes = 0;
+        for (int i = 0; i < n; i++) {
+            alive[i] = true;
+            next[i] = -1;
+            tail[i] = i;
+            if (this.labels[i] != 0) {
+                labelSet(this.labels[i]).add(i);
+            }
+            gxmin = Math.min(gxmin, this.xmin[i]);
+            gymin = Math.min(gymin, this.ymin[i]);
+            gxmax = Math.max(gxmax, this.xmax[i]);
+            gymax = Math.max(gymax, this.ymax[i]);
+            // in long: the box spanning everything is wider than an int
+            sizes += Math.max((long)this.xmax[i] - this.xmin[i], (long)this.ymax[i] - this.ymin[i]) + 1;
+        }
+
+        if (n == 0) {
+            this.grid = null;
+            return;
+        }
+        // cells about the size of a box plus margin, but never many more cells than boxes
+        long width = gxmax - gxmin + 1, height = gymax - gymin + 1;
+        long cellSize = sizes / n + 2L * margin;
+        cellSize = Math.max(cellSize, (long)Math.ceil(Math.sqrt((double)width * height / (4.0 * n + 64))));
+        this.grid = new BoxGrid((int)gxmin, (int)gymin, (int)gxmax, (int)gymax, (int)Math.min(cellSize, Integer.MAX_VALUE), n);
+        for (int i = 0; i < n; i++) {
+            grid.add(i, this.xmin[i], this.ymin[i], this.xmax[i], this.ymax[i]);
+        }
+    }
+
+    private TreeSet<Integer> labelSet(int label) {
+        TreeSet<Integer> set = byLabel.get(label);
+        if (set == null) {
+            set = new TreeSet<>();
+            byLabel.put(label, set);
+        }
+        return set;
+    }
+
+    /**
+     * Whether some corner of box b lies inside box a, grown by the margin on every side.
+     */
+    private boolean boxesIntersect(int a, int b) {
+        int lo = xmin[a] - margin, hi = xmax[a] + margin;
+        boolean x = (xmin[b] >= lo && xmin[b] <= hi) || (xmax[b] >= lo && xmax[b] <= hi);
+        lo = ymin[a] - margin;
+        hi = ymax[a] + margin;
+        boolean y = (ymin[b] >= lo && ymin[b] <= hi) || (ymax[b] >= lo && ymax[b] <= hi);
+        return x && y;
+    }
+
+    /**
+     * @return first live box after i that i can join, -1 if none
+     */
+    private int firstPartnerAfter(int i) {
+        int best = -1;
+        if (labels[i] != 0) {
+            Integer j = labelSet(labels[i]).higher(i);
+            if (j != null) {
+                best = j;
+            }
+        }
+        for (int j : near(i)) {
+            if (j > i && (best < 0 || j < best) && alive[j] && boxesIntersect(i, j)) {
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return first live box before t that can join t, -1 if none
+     */
+    private int firstPartnerBefore(int t) {
+        int best = -1;
+        if (labels[t] != 0) {
+            int first = labelSet(labels[t]).first();
+            if (first < t) {
+                best = first;
+            }
+        }
+        for (int a : near(t)) {
+            if (a < t && (best < 0 || a < best) && alive[a] && boxesIntersect(a, t)) {
+                best = a;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Boxes that could be within the margin of box i, in either direction.
+     */
+    private List<Integer> near(int i) {
+        return grid.near(xmin[i] - margin, ymin[i] - margin, xmax[i] + margin, ymax[i] + margin);
+    }
+
+    /**
+     * Join box b into box a (a < b): a grows to cover both, b's members go after a's.
+     */
+    private void join(int a, int b) {
+        alive[b] = false;
+        if (labels[b] != 0) {
+            labelSet(labels[b]).remove(b);
+        }
+        if (labels[a] == 0 && labels[b] != 0) {
+            labels[a] = labels[b];
+            labelSet(labels[a]).add(a);
+        }
+
+        int oldXmin = xmin[a], oldYmin = ymin[a], oldXmax = xmax[a], oldYmax = ymax[a];
+        xmin[a] = Math.min(xmin[a], xmin[b]);
+        ymin[a] = Math.min(ymin[a], ymin[b]);
+        xmax[a] = Math.max(xmax[a], xmax[b]);
+        ymax[a] = Math.max(ymax[a], ymax[b]);
+        grid.grow(a, oldXmin, oldYmin, oldXmax, oldYmax, xmin[a], ymin[a], xmax[a], ymax[a]);
+
+        next[tail[a]] = b;
+        tail[a] = tail[b];
+    }
+
+    /**
+     * Join everything that can be joined.
+     *
+     * @return groups of joined boxes, in input order of their first member.
+     *          Members of a group are listed in the order their contents should be joined.
+     */
+    public List<int[]> run() {
+        // invariant: no live pair (a, b) with a < i can be joined
+        int i = 0;
+        while (i < n) {
+            if ( ! alive[i] ) {
+                i ++;
+                continue;
+            }
+            int j = firstPartnerAfter(i);
+            if (j < 0) {
+                i ++;
+                continue;
+            }
+            join(i, j);
+
+            // i grew, so it may now reach boxes before it
+            int a;
+            while ((a = firstPartnerBefore(i)) >= 0) {
+                join(a, i);
+                i = a;
+            }
+        }
+
+        List<int[]> groups = new ArrayList<>();
+        for (int head = 0; head < n; head++) {
+            if ( ! alive[head] ) {
+                continue;
+            }
+            int size = 0;
+            for (int m = head; m >= 0; m = next[m]) {
+                size ++;
+            }
+            int[] members = new int[size];
+            size = 0;
+            for (int m = head; m >= 0; m = next[m]) {
+                members[size++] = m;
+            }
+            groups.add(members);
+        }
+        return groups;
+    }
+
+    /**
+     * @param head first member of a group
+     * @return {xmin, ymin, xmax, ymax} of the whole group, once run() is done
+     */
+    public int[] bounds(int head) {
+        return new int[]{xmin[head], ymin[head], xmax[head], ymax[head]};
+    }
+}
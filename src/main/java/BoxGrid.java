@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid over axis aligned boxes, for finding the boxes near some region
+ * without looking at all of them. Boxes are referred to by an integer id in [0, capacity).
+ *
+ * Boxes are never removed: callers skip ids they no longer care about.
+ */
+public class BoxGrid {
+    private final int x0, y0;
+    private final int cellSize;
+    private final int cols, rows;
+    private final List<List<Integer>> cells;
+    private final int[] seen;
+    private int query = 0;
+
+    /**
+     * @param xmin left edge of the area covered by the grid
+     * @param ymin top edge
+     * @param xmax right edge (inclusive)
+     * @param ymax bottom edge (inclusive)
+     * @param cellSize side of a grid cell, in pixels
+     * @param capacity ids are in [0, capacity)
+     */
+    public BoxGrid(int xmin, int ymin, int xmax, int ymax, int cellSize, int capacity) {
+        this.x0 = xmin;
+        this.y0 = ymin;
+        this.cellSize = Math.max(1, cellSize);
+        this.cols = (int)(((long)xmax - xmin) / this.cellSize) + 1;
+        this.rows = (int)(((long)ymax - ymin) / this.cellSize) + 1;
+        this.cells = new ArrayList<>();
+        for (int i = 0; i < cols * rows; i++) {
+            cells.add(new ArrayList<Integer>());
+        }
+        this.seen = new int[capacity];
+    }
+
+    private int col(int x) {
+        return (int)Math.max(0, Math.min(cols - 1, ((long)x - x0) / cellSize));
+    }
+
+    private int row(int y) {
+        return (int)Math.max(0, Math.min(rows - 1, ((long)y - y0) / cellSize));
+    }
+
+    public void add(int id, int xmin, int ymin, int xmax, int ymax) {
+        for (int r = row(ymin); r <= row(ymax); r++) {
+            for (int c = col(xmin); c <= col(xmax); c++) {
+                cells.get(r * cols + c).add(id);
+            }
+        }
+    }
+
+    /**
+     * Register a box that grew from its old extent to a new one containing it.
+     * Only the cells it did not already cover are touched.
+     */
+    public void grow(int id, int oldXmin, int oldYmin, int oldXmax, int oldYmax,
+                     int xmin, int ymin, int xmax, int ymax) {
+        int oc0 = col(oldXmin), oc1 = col(oldXmax), or0 = row(oldYmin), or1 = row(oldYmax);
+        for (int r = row(ymin); r <= row(ymax); r++) {
+            for (int c = col(xmin); c <= col(xmax); c++) {
+                if (r >= or0 && r <= or1 && c >= oc0 && c <= oc1) {
+                    continue;
+                }
+                cells.get(r * cols + c).add(id);
+            }
+        }
+    }
+
+    /**
+     * @return every id added with a box overlapping a cell that the given region overlaps,
+     *          each at most once. This is a superset of the boxes intersecting the region.
+     */
+    public List<Integer> near(int xmin, int ymin, int xmax, int ymax) {
+        query ++;
+        List<Integer> ids = new ArrayList<>();
+        for (int r = row(ymin); r <= row(ymax); r++) {
+            for (int c = col(xmin); c <= col(xmax); c++) {
+                for (int id : cells.get(r * cols + c)) {
+                    if (seen[id] != query) {
+                        seen[id] = query;
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+}
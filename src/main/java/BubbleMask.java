@@ -0,0 +1,231 @@
+import java.util.BitSet;
+
+/**
+ * The pixels of a single speech bubble, plus the text box inside it.
+ *
+ * Bits are only kept for a region of the page around the mask, grown (at least doubling
+ * each way it needs to, within the page) as the mask does, so a mask costs memory and time
+ * in proportion to the bubble's area, not the page's.
+ */
+public class BubbleMask {
+    private final int width, height;
+    // region the bits cover, in page coordinates
+    private int regionX, regionY, regionWidth, regionHeight;
+    private BitSet bits;
+    private int xmin, ymin, xmax, ymax;
+
+    /**
+     * @param region where the mask starts out, within the page
+     */
+    private BubbleMask(int width, int height, Rectangle region) {
+        this.width = width;
+        this.height = height;
+        this.regionX = region.xmin();
+        this.regionY = region.ymin();
+        this.regionWidth = region.width() + 1;
+        this.regionHeight = region.height() + 1;
+        this.bits = new BitSet(regionWidth * regionHeight);
+        xmin = ymin = Integer.MAX_VALUE;
+        xmax = ymax = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Flood fill outward from the text box through background pixels.
+     * The text box is always part of the mask, text and all.
+     *
+     * @param background which pixels count as bubble background
+     * @param seed text box, must lie inside the image
+     * @return mask of the bubble around the seed
+     */
+    public static BubbleMask floodFill(BackgroundMask background, Rectangle seed) {
+        BubbleMask mask = new BubbleMask(background.getWidth(), background.getHeight(), seed);
+        // pixels to look around, as y * width + x
+        int[] stack = new int[64];
+        int top = 0;
+
+        for (int y = seed.ymin(); y <= seed.ymax(); y++) {
+            for (int x = seed.xmin(); x <= seed.xmax(); x++) {
+                mask.add(x, y);
+            }
+        }
+        // only the seed's border can have neighbours that are not in the mask yet
+        for (int x = seed.xmin(); x <= seed.xmax(); x++) {
+            stack = push(stack, top++, mask.index(x, seed.ymin()));
+            stack = push(stack, top++, mask.index(x, seed.ymax()));
+        }
+        for (int y = seed.ymin(); y <= seed.ymax(); y++) {
+            stack = push(stack, top++, mask.index(seed.xmin(), y));
+            stack = push(stack, top++, mask.index(seed.xmax(), y));
+        }
+
+        int[] dx = new int[]{-1, 1, 0, 0};
+        int[] dy = new int[]{0, 0, -1, 1};
+        while (top > 0) {
+            int i = stack[--top];
+            int x = i % mask.width;
+            int y = i / mask.width;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + dx[d];
+                int ny = y + dy[d];
+                if ( ! background.inBounds(nx, ny) || mask.contains(nx, ny) ) {
+                    continue;
+                }
+                if (background.isBackground(nx, ny)) {
+                    mask.add(nx, ny);
+                    stack = push(stack, top++, mask.index(nx, ny));
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Mask of one labelled component of a page segmentation.
+     * The text box is always part of the mask, text and all.
+     *
+     * @param segmentation page segmentation
+     * @param label label of the component
+     * @param seed text box, must lie inside the image
+     * @return mask of the component plus the seed
+     */
+    public static BubbleMask fromSegmentation(BubbleSegmentation segmentation, int label, Rectangle seed) {
+        Rectangle bounds = segmentation.getBubble(label).bounds;
+        BubbleMask mask = new BubbleMask(segmentation.getWidth(), segmentation.getHeight(), new Rectangle(
+                Math.min(bounds.xmin(), seed.xmin()), Math.min(bounds.ymin(), seed.ymin()),
+                Math.max(bounds.xmax(), seed.xmax()), Math.max(bounds.ymax(), seed.ymax())));
+        for (int y = bounds.ymin(); y <= bounds.ymax(); y++) {
+            for (int x = bounds.xmin(); x <= bounds.xmax(); x++) {
+                if (segmentation.getLabel(x, y) == label) {
+                    mask.add(x, y);
+                }
+            }
+        }
+        for (int y = seed.ymin(); y <= seed.ymax(); y++) {
+            for (int x = seed.xmin(); x <= seed.xmax(); x++) {
+                mask.add(x, y);
+            }
+        }
+        return mask;
+    }
+
+    private static int[] push(int[] stack, int top, int value) {
+        if (top == stack.length) {
+            int[] bigger = new int[stack.length * 2];
+            System.arraycopy(stack, 0, bigger, 0, stack.length);
+            stack = bigger;
+        }
+        stack[top] = value;
+        return stack;
+    }
+
+    private int index(int x, int y) {
+        return y * width + x;
+    }
+
+    private void add(int x, int y) {
+        if ( ! inRegion(x, y) ) {
+            grow(x, y);
+        }
+        bits.set((y - regionY) * regionWidth + (x - regionX));
+        if (x < xmin) xmin = x;
+        if (y < ymin) ymin = y;
+        if (x > xmax) xmax = x;
+        if (y > ymax) ymax = y;
+    }
+
+    private boolean inRegion(int x, int y) {
+        return x >= regionX && y >= regionY && x < regionX + regionWidth && y < regionY + regionHeight;
+    }
+
+    /**
+     * Grow the region to take in (x, y), by at least its own size each way it needs to grow.
+     */
+    private void grow(int x, int y) {
+        int left = regionX, top = regionY;
+        int right = regionX + regionWidth - 1, bottom = regionY + regionHeight - 1;
+        if (x < left) {
+            left = Math.max(0, Math.min(x, left - regionWidth));
+        }
+        if (x > right) {
+            right = Math.min(width - 1, Math.max(x, right + regionWidth));
+        }
+        if (y < top) {
+            top = Math.max(0, Math.min(y, top - regionHeight));
+        }
+        if (y > bottom) {
+            bottom = Math.min(height - 1, Math.max(y, bottom + regionHeight));
+        }
+        int grownWidth = right - left + 1;
+        BitSet grown = new BitSet(grownWidth * (bottom - top + 1));
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            int px = regionX + i % regionWidth;
+            int py = regionY + i / regionWidth;
+            grown.set((py - top) * grownWidth + (px - left));
+        }
+        bits = grown;
+        regionX = left;
+        regionY = top;
+        regionWidth = grownWidth;
+        regionHeight = bottom - top + 1;
+    }
+
+    public boolean contains(int x, int y) {
+        return inRegion(x, y) && bits.get((y - regionY) * regionWidth + (x - regionX));
+    }
+
+    /**
+     * @return axis aligned bounding box of the whole mask
+     */
+    public Rectangle bounds() {
+        return new Rectangle(xmin, ymin, xmax, ymax);
+    }
+
+    /**
+     * Largest axis aligned rectangle lying entirely inside the mask that contains the given box.
+     *
+     * Sweeps the mask's bounding box row by row, keeping for each column the number of
+     * consecutive mask pixels ending at the current row (a histogram), and finds the
+     * largest rectangles in that histogram with a stack, in time linear in the row width.
+     * Only rectangles tall and wide enough to cover the box are kept.
+     *
+     * @param box box to contain, must be entirely inside the mask
+     * @return as described; the box itself if nothing larger fits
+     */
+    public Rectangle largestRectangleContaining(Rectangle box) {
+        int w = xmax - xmin + 1;
+        int[] heights = new int[w];
+        int[] stack = new int[w + 1];
+
+        Rectangle best = box;
+        long bestArea = (long)(box.width() + 1) * (box.height() + 1);
+
+        for (int y = ymin; y <= ymax; y++) {
+            for (int i = 0; i < w; i++) {
+                heights[i] = contains(xmin + i, y) ? heights[i] + 1 : 0;
+            }
+            if (y < box.ymax()) {
+                continue;
+            }
+
+            int minHeight = y - box.ymin() + 1;
+            int top = 0;
+            for (int i = 0; i <= w; i++) {
+                int h = (i == w) ? 0 : heights[i];
+                while (top > 0 && heights[stack[top - 1]] >= h) {
+                    int barHeight = heights[stack[--top]];
+                    int left = xmin + (top == 0 ? 0 : stack[top - 1] + 1);
+                    int right = xmin + i - 1;
+                    if (barHeight >= minHeight && left <= box.xmin() && right >= box.xmax()) {
+                        long area = (long)barHeight * (right - left + 1);
+                        if (area > bestArea) {
+                            bestArea = area;
+                            best = new Rectangle(left, y - barHeight + 1, right, y);
+                        }
+                    }
+                }
+                stack[top++] = i;
+            }
+        }
+        return best;
+    }
+}
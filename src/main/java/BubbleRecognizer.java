@@ -0,0 +1,113 @@
+import com.google.cloud.vision.v1.Paragraph;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads only the speech bubbles of a page, not the artwork around them.
+ *
+ * The page is segmented into bubble candidates (see BubbleSegmentation), and only those
+ * regions, padded a little, are handed to the wrapped recognizer, all in one
+ * getParagraphsFromRegions call so it can batch or parallelize them.
+ * Regions that overlap once padded (a bubble inside another, or two bubbles touching)
+ * are read as one, so their text isn't read twice.
+ * Paragraphs come back in page coordinates.
+ */
+public class BubbleRecognizer implements TextRecognizer {
+    // room around a bubble's light pixels, so text touching its outline is still read whole
+    private static final int PADDING = 4;
+
+    private final TextRecognizer recognizer;
+
+    public BubbleRecognizer(TextRecognizer recognizer) {
+        this.recognizer = recognizer;
+    }
+
+    /**
+     * @param segmentation segmentation of img, eg. from ImageWriter.getBubbleSegmentation()
+     * @return paragraphs found in the bubbles, bubble by bubble
+     */
+    public List<Paragraph> getParagraphsInBubbles(BufferedImage img, BubbleSegmentation segmentation)
+            throws Exception {
+        return getParagraphsInBubbles(img, segmentation, null);
+    }
+
+    private List<Paragraph> getParagraphsInBubbles(BufferedImage img, BubbleSegmentation segmentation,
+                                                   Rectangle within) throws Exception {
+        List<Rectangle> regions = new ArrayList<>();
+        for (BubbleSegmentation.Bubble bubble : segmentation.getBubbles()) {
+            Rectangle b = bubble.bounds;
+            Rectangle region = new Rectangle(
+                    b.xmin() - PADDING, b.ymin() - PADDING, b.xmax() + PADDING, b.ymax() + PADDING);
+            if (within != null) {
+                region = new Rectangle(
+                        Math.max(region.xmin(), within.xmin()),
+                        Math.max(region.ymin(), within.ymin()),
+                        Math.min(region.xmax(), within.xmax()),
+                        Math.min(region.ymax(), within.ymax())
+                );
+                if (region.xmin() > region.xmax() || region.ymin() > region.ymax()) {
+                    continue;
+                }
+            }
+            regions.add(region);
+        }
+
+        List<Paragraph> paragraphs = new ArrayList<>();
+        for (List<Paragraph> inBubble : recognizer.getParagraphsFromRegions(img, merged(regions))) {
+            paragraphs.addAll(inBubble);
+        }
+        return paragraphs;
+    }
+
+    /**
+     * @return the regions, with any two that overlap replaced by the box around both
+     *          (until none overlap), in the order of their first region
+     */
+    static List<Rectangle> merged(List<Rectangle> regions) {
+        List<Rectangle> merged = new ArrayList<>(regions);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && ! changed; i++) {
+                for (int j = i + 1; j < merged.size(); j++) {
+                    Rectangle a = merged.get(i), b = merged.get(j);
+                    if (a.xmin() <= b.xmax() && b.xmin() <= a.xmax() && a.ymin() <= b.ymax() && b.ymin() <= a.ymax()) {
+                        merged.set(i, new Rectangle(
+                                Math.min(a.xmin(), b.xmin()), Math.min(a.ymin(), b.ymin()),
+                                Math.max(a.xmax(), b.xmax()), Math.max(a.ymax(), b.ymax())));
+                        merged.remove(j);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Only the bubbles within the region are read.
+     */
+    @Override
+    public List<Paragraph> getParagraphsFromImage(BufferedImage img, Rectangle region) throws Exception {
+        return getParagraphsInBubbles(img, new BubbleSegmentation(img), region);
+    }
+
+    @Override
+    public Language getLanguage() {
+        return recognizer.getLanguage();
+    }
+
+    @Override
+    public String getTextFromImageFile(File f) {
+        return recognizer.getTextFromImageFile(f);
+    }
+
+    @Override
+    public String implSpecificLanguage(Language language) {
+        return recognizer.implSpecificLanguage(language);
+    }
+}
@@ -0,0 +1,224 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Whole-page speech bubble segmentation, done once per image.
+ *
+ * The page is thresholded into light and dark pixels, and light pixels are grouped
+ * into 4-connected components with a two pass union-find labeling. Every light pixel
+ * gets the label of its component (dark pixels get 0). Components that are big enough
+ * and don't touch the edge of the page are our speech bubble candidates.
+ *
+ * Like IntegralImage, this is a snapshot of the page at construction time.
+ */
+public class BubbleSegmentation {
+    private static final int LIGHT_THRESHOLD = 200;     // luminance, 0 - 255
+    private static final int MIN_BUBBLE_PIXELS = 400;
+
+    private final int width, height;
+    private final int[] labels;
+    private final List<Bubble> components = new ArrayList<>();     // index = label - 1
+    private final List<Bubble> bubbles = new ArrayList<>();
+    private final boolean[] isBubble;   // index = label
+
+    public static class Bubble {
+        public final int label;
+        public final int pixelCount;
+        public final Rectangle bounds;
+
+        Bubble(int label, int pixelCount, Rectangle bounds) {
+            this.label = label;
+            this.pixelCount = pixelCount;
+            this.bounds = bounds;
+        }
+    }
+
+    public BubbleSegmentation(BufferedImage img) {
+        this(new PixelReader(img));
+    }
+
+    public BubbleSegmentation(PixelReader pixels) {
+        this.width = pixels.getWidth();
+        this.height = pixels.getHeight();
+        this.labels = new int[width * height];
+
+        // first pass: provisional labels, recording which ones touch
+        int[] parent = new int[64];
+        int next = 1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ( ! isLight(pixels.rgb(x, y)) ) {
+                    continue;
+                }
+                int i = y * width + x;
+                int left = x > 0 ? labels[i - 1] : 0;
+                int up = y > 0 ? labels[i - width] : 0;
+                if (left == 0 && up == 0) {
+                    if (next == parent.length) {
+                        int[] bigger = new int[parent.length * 2];
+                        System.arraycopy(parent, 0, bigger, 0, parent.length);
+                        parent = bigger;
+                    }
+                    parent[next] = next;
+                    labels[i] = next++;
+                }
+                else if (left == 0 || up == 0) {
+                    labels[i] = Math.max(left, up);
+                }
+                else {
+                    labels[i] = left;
+                    union(parent, left, up);
+                }
+            }
+        }
+
+        // second pass: resolve to consecutive final labels, gathering bounds and sizes
+        int[] finalLabel = new int[next];
+        List<int[]> stats = new ArrayList<>();     // {count, xmin, ymin, xmax, ymax}
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (labels[i] == 0) {
+                    continue;
+                }
+                int root = find(parent, labels[i]);
+                if (finalLabel[root] == 0) {
+                    stats.add(new int[]{0, x, y, x, y});
+                    finalLabel[root] = stats.size();
+                }
+                int label = finalLabel[root];
+                labels[i] = label;
+                int[] s = stats.get(label - 1);
+                s[0] ++;
+                if (x < s[1]) s[1] = x;
+                if (x > s[3]) s[3] = x;
+                s[4] = y;
+            }
+        }
+
+        isBubble = new boolean[stats.size() + 1];
+        for (int l = 1; l <= stats.size(); l++) {
+            int[] s = stats.get(l - 1);
+            Bubble component = new Bubble(l, s[0], new Rectangle(s[1], s[2], s[3], s[4]));
+            components.add(component);
+            boolean touchesEdge = s[1] == 0 || s[2] == 0 || s[3] == width - 1 || s[4] == height - 1;
+            if (s[0] >= MIN_BUBBLE_PIXELS && ! touchesEdge) {
+                bubbles.add(component);
+                isBubble[l] = true;
+            }
+        }
+    }
+
+    private static boolean isLight(int rgb) {
+        int luminance = (PixelReader.red(rgb) * 299
+                + PixelReader.green(rgb) * 587
+                + PixelReader.blue(rgb) * 114) / 1000;
+        return luminance >= LIGHT_THRESHOLD;
+    }
+
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a != b) {
+            // keep the smaller label as root so roots are met in scan order
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return label of the light component at (x, y), 0 if the pixel is dark
+     */
+    public int getLabel(int x, int y) {
+        return labels[y * width + x];
+    }
+
+    /**
+     * @return speech bubble candidates, in label order
+     */
+    public List<Bubble> getBubbles() {
+        return Collections.unmodifiableList(bubbles);
+    }
+
+    public boolean isBubble(int label) {
+        return label > 0 && label < isBubble.length && isBubble[label];
+    }
+
+    /**
+     * Find the speech bubble a text box sits in: the bubble label covering
+     * the most pixels of the box.
+     *
+     * @param box text box
+     * @return label of the bubble, 0 if the box is not in any bubble
+     */
+    public int bubbleAt(Rectangle box) {
+        int xmin = Math.max(0, box.xmin());
+        int ymin = Math.max(0, box.ymin());
+        int xmax = Math.min(width - 1, box.xmax());
+        int ymax = Math.min(height - 1, box.ymax());
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        int best = 0, bestCount = 0;
+        for (int y = ymin; y <= ymax; y++) {
+            for (int x = xmin; x <= xmax; x++) {
+                int label = labels[y * width + x];
+                if (label == 0) {
+                    continue;
+                }
+                Integer count = counts.get(label);
+                count = (count == null) ? 1 : count + 1;
+                counts.put(label, count);
+                if (count > bestCount) {
+                    best = label;
+                    bestCount = count;
+                }
+            }
+        }
+        return isBubble(best) ? best : 0;
+    }
+
+    public Bubble getBubble(int label) {
+        return components.get(label - 1);
+    }
+
+    /**
+     * Largest rectangle inside the text box's bubble that contains the text box.
+     *
+     * @param box text box
+     * @return as described, or empty if the text box is not in a bubble
+     */
+    public Optional<Rectangle> getMaximalRectangle(Rectangle box) {
+        int label = bubbleAt(box);
+        if (label == 0) {
+            return Optional.empty();
+        }
+        Rectangle seed = new Rectangle(
+                Math.max(0, box.xmin()),
+                Math.max(0, box.ymin()),
+                Math.min(width - 1, box.xmax()),
+                Math.min(height - 1, box.ymax())
+        );
+        BubbleMask mask = BubbleMask.fromSegmentation(this, label, seed);
+        return Optional.of(mask.largestRectangleContaining(seed));
+    }
+}
@@ -0,0 +1,574 @@
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.protobuf.ByteString;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Translates a whole directory of pages (a chapter) without a window,
+ * writing each translated page to an output directory.
+ *
+ * Every page goes through the stages
+ *      load -> ocr -> detect -> translate -> render -> encode
+ * each with its own threads, so pages waiting on the network (ocr, translate)
+ * overlap with pages being worked on locally (detect, render, encode).
+ * Pages waiting on the network don't hold a thread: ocr and translate send requests
+ * without waiting for them (see RemoteCalls), and keep several pages in flight.
+ */
+public class ChapterPipeline {
+    public static final List<String> STAGES =
+            Arrays.asList("load", "ocr", "detect", "translate", "render", "encode");
+    private static final long TRANSLATION_CACHE_CHARS = 1 << 20;
+    private static final long OCR_CACHE_BYTES = 256L << 20;
+
+    private final TextRecognizer recognizer;
+    private final Translator translator;
+    private final File outputDir;
+    private final Map<String, Integer> threads = new LinkedHashMap<>();
+    private int queueCapacity = 4;
+    private String format = "png";
+    private float quality = -1;
+    private ExpansionMode mode = ExpansionMode.GREEDY;
+    private LineBreaking lineBreaking = LineBreaking.GREEDY;
+    private boolean bubblesOnly = false;
+    private File metricsFile;
+
+    /**
+     * A page on its way through the pipeline. Each stage fills in what the next needs
+     * and lets go of what no later stage does.
+     */
+    private static class Page {
+        final File file;
+        ByteString bytes;
+        ImageWriter writer;
+        List<Paragraph> paragraphs;
+        List<Rectangle> boxes;
+        BufferedImage result;
+        final Metrics metrics = new Metrics();
+
+        Page(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    public ChapterPipeline(TextRecognizer recognizer, Translator translator, File outputDir) {
+        this.recognizer = recognizer;
+        this.translator = translator;
+        this.outputDir = outputDir;
+        int cores = Runtime.getRuntime().availableProcessors();
+        threads.put("load", 2);
+        threads.put("ocr", 8);
+        threads.put("detect", cores);
+        threads.put("translate", 8);
+        threads.put("render", cores);
+        threads.put("encode", 2);
+    }
+
+    /**
+     * @param n threads, or for ocr and translate, pages in flight at once
+     */
+    public void setThreads(String stage, int n) {
+        if ( ! threads.containsKey(stage) ) {
+            throw new IllegalArgumentException("no stage " + stage + ", stages are " + STAGES);
+        }
+        threads.put(stage, n);
+    }
+
+    /**
+     * @param queueCapacity most pages waiting in front of any one stage
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param format informal name of an ImageIO writer, eg. "png" or "jpeg"
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @param quality encoder quality from 0 to 1 (see PageEncoder), negative for the encoder's default
+     */
+    public void setQuality(float quality) {
+        this.quality = quality;
+    }
+
+    public void setExpansionMode(ExpansionMode mode) {
+        this.mode = mode;
+    }
+
+    public void setLineBreaking(LineBreaking lineBreaking) {
+        this.lineBreaking = lineBreaking;
+    }
+
+    /**
+     * @param bubblesOnly OCR only the speech bubble candidates of each page (see BubbleRecognizer),
+     *                    instead of the whole page
+     */
+    public void setBubblesOnly(boolean bubblesOnly) {
+        this.bubblesOnly = bubblesOnly;
+    }
+
+    /**
+     * Record timings and counts (see Metrics) and write them to the file when done:
+     * in Prometheus' text format if the file name ends in .prom, otherwise as JSON lines,
+     * one per page and a last one for the whole run.
+     *
+     * @param metricsFile null to not record any
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * @return image files directly inside the directory, by name
+     */
+    public static List<File> listPages(File pageDir) {
+        List<File> pages = new ArrayList<>();
+        File[] files = pageDir.listFiles();
+        if (files == null) {
+            return pages;
+        }
+        for (File f : files) {
+            String name = f.getName().toLowerCase();
+            if (f.isFile() && (name.endsWith(".jpeg") || name.endsWith(".jpg") || name.endsWith(".png"))) {
+                pages.add(f);
+            }
+        }
+        Collections.sort(pages);
+        return pages;
+    }
+
+    /**
+     * Translate every page in the directory, printing throughput when done.
+     *
+     * @return files written
+     */
+    public List<File> run(File pageDir) throws InterruptedException {
+        if ( ! outputDir.isDirectory() && ! outputDir.mkdirs() ) {
+            System.err.printf("failed to create output directory %s\n", outputDir);
+        }
+
+        if (metricsFile != null) {
+            Metrics.setEnabled(true);
+        }
+        PageEncoder encoder = new PageEncoder(format, quality);
+        StagedPipeline<Page> pipeline = new StagedPipeline<Page>(queueCapacity)
+                .addStage("load", threads.get("load"), metered("load", page -> load(page)));
+        if ( ! ocrAsync() ) {
+            // finding the bubbles is work to do before sending anything, and Tesseract works right here
+            pipeline.addStage("ocr", threads.get("ocr"), metered("ocr", page -> recognize(page)));
+        }
+        else {
+            pipeline.addAsyncStage("ocr", threads.get("ocr"), meteredAsync("ocr", page -> recognizeAsync(page)));
+        }
+        pipeline.addStage("detect", threads.get("detect"), metered("detect", page -> detect(page)))
+                .addAsyncStage("translate", threads.get("translate"), meteredAsync("translate", page -> translate(page)))
+                .addStage("render", threads.get("render"), metered("render", page -> render(page)))
+                .addStage("encode", threads.get("encode"), metered("encode", page -> encode(page, encoder)));
+
+        List<Page> pages = new ArrayList<>();
+        for (File f : listPages(pageDir)) {
+            pages.add(new Page(f));
+        }
+
+        long start = System.nanoTime();
+        List<Page> done;
+        try {
+            done = pipeline.run(pages);
+        } finally {
+            encoder.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d of %d pages in %.1f s, %.2f pages/sec\n",
+                done.size(), pages.size(), seconds, done.size() / seconds);
+        for (Map.Entry<String, Double> busy : pipeline.getBusySeconds().entrySet()) {
+            boolean async = busy.getKey().equals("translate") || (busy.getKey().equals("ocr") && ocrAsync());
+            System.out.printf("  %-10s %2d %s, %6.1f s busy\n", busy.getKey(), threads.get(busy.getKey()),
+                    async ? "in flight" : "threads", busy.getValue());
+        }
+        if (recognizer instanceof TextRecognizerGoogle && ((TextRecognizerGoogle) recognizer).getOcrCache() != null) {
+            System.out.printf("OCR cache: %s\n", ((TextRecognizerGoogle) recognizer).getOcrCache());
+        }
+        if (translator.getCache() != null) {
+            System.out.printf("translation cache: %s\n", translator.getCache());
+        }
+        if (translator.getRateLimiter() != null) {
+            System.out.printf("translation rate limit: %s\n", translator.getRateLimiter());
+        }
+
+        if (metricsFile != null) {
+            writeMetrics(done);
+        }
+
+        List<File> written = new ArrayList<>();
+        for (Page page : done) {
+            written.add(outputFile(page));
+        }
+        return written;
+    }
+
+    /**
+     * Whatever the stage records, it records for the page too, and the stage itself is timed.
+     */
+    private static StagedPipeline.Stage<Page> metered(String stage, StagedPipeline.Stage<Page> work) {
+        return page -> {
+            Metrics previous = Metrics.enter(page.metrics);
+            long started = Metrics.start();
+            try {
+                return work.process(page);
+            } finally {
+                Metrics.stop("stage." + stage, started);
+                Metrics.enter(previous);
+            }
+        };
+    }
+
+    /**
+     * Same as metered, for a stage that finishes later: it's timed until it does.
+     */
+    private static StagedPipeline.AsyncStage<Page> meteredAsync(String stage, StagedPipeline.AsyncStage<Page> work) {
+        return page -> {
+            Metrics previous = Metrics.enter(page.metrics);
+            long started = Metrics.start();
+            try {
+                return work.process(page).whenComplete((done, failure) -> {
+                    Metrics finishing = Metrics.enter(page.metrics);
+                    Metrics.stop("stage." + stage, started);
+                    Metrics.enter(finishing);
+                });
+            } finally {
+                Metrics.enter(previous);
+            }
+        };
+    }
+
+    private void writeMetrics(List<Page> done) {
+        try (PrintWriter out = new PrintWriter(metricsFile, "UTF-8")) {
+            if (metricsFile.getName().endsWith(".prom")) {
+                out.print(Metrics.getShared().toPrometheus());
+                return;
+            }
+            for (Page page : done) {
+                out.println(page.metrics.toJson(page.toString()));
+            }
+            out.println(Metrics.getShared().toJson("all"));
+        } catch (IOException e) {
+            System.err.printf("failed to write metrics to %s: %s\n", metricsFile, e);
+        }
+    }
+
+    private Page load(Page page) throws IOException {
+        PageImage read = PageImage.read(page.file.toPath());
+        page.bytes = read.getBytes();
+        page.writer = new ImageWriter(read.getImage(), this.translator);
+        page.writer.setLineBreaking(lineBreaking);
+        return page;
+    }
+
+    private Page recognize(Page page) throws Exception {
+        if (bubblesOnly) {
+            page.paragraphs = new BubbleRecognizer(recognizer).getParagraphsInBubbles(
+                    page.writer.getImage(), page.writer.getBubbleSegmentation());
+        }
+        else if (recognizer instanceof TextRecognizerGoogle) {
+            page.paragraphs = ((TextRecognizerGoogle) recognizer)
+                    .detectDocumentTextFromBytes(Collections.singletonList(page.bytes)).get(0);
+        }
+        else {
+            page.paragraphs = recognizer.getParagraphsFromImage(page.writer.getImage());
+        }
+        page.bytes = null;
+        return page;
+    }
+
+    /**
+     * @return whether pages are read without holding a thread: whole pages, by the Vision API
+     */
+    private boolean ocrAsync() {
+        return ! bubblesOnly && recognizer instanceof TextRecognizerGoogle;
+    }
+
+    private Page detect(Page page) {
+        page.writer.resizeParagraphs(page.paragraphs);
+        if (recognizer instanceof TextRecognizerGoogle && (bubblesOnly || mode == ExpansionMode.SEGMENTED)) {
+            // the page is segmented anyway: text split up inside one bubble is translated and drawn as one
+            page.paragraphs = ((TextRecognizerGoogle) recognizer).joinAllParagraphs(
+                    page.paragraphs, page.writer.getBubbleSegmentation());
+        }
+        page.boxes = page.writer.expandParagraphs(page.paragraphs, mode);
+        return page;
+    }
+
+    private CompletableFuture<Page> recognizeAsync(Page page) {
+        return ((TextRecognizerGoogle) recognizer).detectDocumentTextAsync(Collections.singletonList(page.bytes)).thenApply(read -> {
+            page.paragraphs = read.get(0);
+            page.bytes = null;
+            return page;
+        });
+    }
+
+    private CompletableFuture<Page> translate(Page page) {
+        return page.writer.translatedParagraphsAsync(page.paragraphs).thenApply(translated -> {
+            page.paragraphs = translated;
+            return page;
+        });
+    }
+
+    private Page render(Page page) {
+        page.writer.writeParagraphs(page.paragraphs, page.boxes);
+        page.result = page.writer.getImage();
+        page.writer = null;
+        page.paragraphs = null;
+        page.boxes = null;
+        return page;
+    }
+
+    private Page encode(Page page, PageEncoder encoder) throws IOException {
+        encoder.write(page.result, outputFile(page));
+        page.result = null;
+        return page;
+    }
+
+    private File outputFile(Page page) {
+        String name = page.file.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputDir, (dot < 0 ? name : name.substring(0, dot)) + "." + format);
+    }
+
+    /**
+     * ChapterPipeline [pageDir [outputDir]] [--stage=threads ...] [--queue=n] [--format=png|jpeg]
+     *                 [--quality=0..1] [--cache=translation cache file] [--ocr-cache=OCR cache directory]
+     *                 [--roi=true to OCR speech bubbles only] [--ocr=google|tesseract] [--lines=greedy|balanced]
+     *                 [--expansion=greedy|maximal_rectangle|segmented]
+     *                 [--metrics=file.jsonl or file.prom]
+     *                 [--offline=synthetic or recorded responses directory] [--record=responses directory]
+     *                 [--latency=ms] [--jitter=ms] [--error-rate=0..1] [--error-code=503|429]
+     *                 [--in-flight=requests to each service at once] [--timeout=ms per request] [--retries=n]
+     *                 [--batch-window=ms, negative for none] [--rate=translation requests/s to start at, 0 for no limit]
+     *                 [--max-rate=requests/s] [--quota=requests/s the offline translation service allows]
+     *
+     * Translation requests are paced from --rate, faster as they succeed and slower as the service
+     * pushes back, and texts asked for within --batch-window ms of each other, by any page, go together.
+     *
+     * With --ocr=tesseract, pages are read by Tesseract on this machine (tessdata from TESSDATA_PREFIX),
+     * best with --roi=true; the OCR options below then only apply to translation.
+     *
+     * Offline, OCR and translation answers are made up (or OCR answers replayed from what --record saved),
+     * taking --latency +- --jitter ms per request, with --error-rate of requests failing with --error-code.
+     * Offline or recording, the caches are only used if given: pass --cache=translation_cache.log
+     * to replay real translations offline.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        Translator translator;
+        if (options.offline != null) {
+            SimulatedService translateService = options.simulatedService(2);
+            translateService.setQuota(options.quota);
+            translator = new Translator(new SyntheticTranslationBackend(translateService));
+        }
+        else {
+            translator = new Translator();
+        }
+
+        try (TextRecognizerGoogle google = options.tesseract ? null
+                     : googleRecognizer(options.offline, options.record, options.simulatedService(1));
+             TesseractPool tesseractPool = options.tesseract ? TesseractPool.fromEnvironment() : null;
+             TranslationCache cache = options.cacheFile == null ? new TranslationCache(TRANSLATION_CACHE_CHARS)
+                     : new TranslationCache(TRANSLATION_CACHE_CHARS, options.cacheFile);
+             RemoteCalls ocrCalls = new RemoteCalls("ocr", options.inFlight, options.timeout, options.retries + 1);
+             RemoteCalls translateCalls = new RemoteCalls("translate", options.inFlight, options.timeout, options.retries + 1)) {
+            TextRecognizer recognizer = options.tesseract ? new TextRecognizerTesseract(Language.JPN, tesseractPool) : google;
+            if (google != null) {
+                google.setRemoteCalls(ocrCalls);
+                if (options.ocrCacheDir != null) {
+                    google.setOcrCache(new OcrCache(options.ocrCacheDir, OCR_CACHE_BYTES));
+                }
+            }
+            translator.setRemoteCalls(translateCalls);
+            translator.setBatchWindow(options.batchWindow);
+            if (options.rate > 0) {
+                translator.setRateLimiter(new AdaptiveRateLimiter(
+                        options.rate, Math.min(options.rate, 0.5), Math.max(options.rate, options.maxRate)));
+            }
+            translator.setCache(cache);
+            ChapterPipeline pipeline = new ChapterPipeline(recognizer, translator, options.outputDir);
+            options.configure(pipeline);
+            pipeline.run(options.pageDir);
+        }
+    }
+
+    /**
+     * What main was asked for on the command line, defaults filled in.
+     */
+    static class Options {
+        File pageDir = new File("random_manga_images");
+        File outputDir = new File("translated_manga_images");
+        String offline, record;
+        boolean tesseract = false;
+        File cacheFile, ocrCacheDir;
+        long latency = 0, jitter = 0;
+        double errorRate = 0;
+        int errorCode = 503;
+        int inFlight = 8;
+        long timeout = 60_000;
+        int retries = 3;
+        long batchWindow = 20;
+        double rate = 10, maxRate = 100, quota = 0;
+        // pipeline settings, null for the pipeline's own default
+        Integer queue;
+        Boolean roi;
+        LineBreaking lines;
+        ExpansionMode expansion;
+        String format;
+        Float quality;
+        File metricsFile;
+        final Map<String, Integer> threads = new LinkedHashMap<>();
+
+        /**
+         * @throws IllegalArgumentException for an option or value main doesn't know
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            List<String> dirs = new ArrayList<>();
+            boolean cacheGiven = false, ocrCacheGiven = false;
+            for (String arg : args) {
+                if ( ! (arg.startsWith("--") && arg.contains("=")) ) {
+                    dirs.add(arg);
+                    continue;
+                }
+                int eq = arg.indexOf('=');
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "offline": options.offline = value; break;
+                    case "record": options.record = value; break;
+                    case "ocr":
+                        if ( ! value.equals("google") && ! value.equals("tesseract") ) {
+                            throw new IllegalArgumentException("--ocr is google or tesseract, not " + value);
+                        }
+                        options.tesseract = value.equals("tesseract");
+                        break;
+                    case "cache": options.cacheFile = new File(value); cacheGiven = true; break;
+                    case "ocr-cache": options.ocrCacheDir = new File(value); ocrCacheGiven = true; break;
+                    case "latency": options.latency = Long.parseLong(value); break;
+                    case "jitter": options.jitter = Long.parseLong(value); break;
+                    case "error-rate": options.errorRate = Double.parseDouble(value); break;
+                    case "error-code": options.errorCode = Integer.parseInt(value); break;
+                    case "in-flight": options.inFlight = Integer.parseInt(value); break;
+                    case "timeout": options.timeout = Long.parseLong(value); break;
+                    case "retries": options.retries = Integer.parseInt(value); break;
+                    case "batch-window": options.batchWindow = Long.parseLong(value); break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "max-rate": options.maxRate = Double.parseDouble(value); break;
+                    case "quota": options.quota = Double.parseDouble(value); break;
+                    case "queue": options.queue = Integer.parseInt(value); break;
+                    case "roi": options.roi = Boolean.parseBoolean(value); break;
+                    case "lines": options.lines = LineBreaking.valueOf(value.toUpperCase()); break;
+                    case "expansion": options.expansion = ExpansionMode.valueOf(value.toUpperCase().replace('-', '_')); break;
+                    case "format": options.format = value; break;
+                    case "quality": options.quality = Float.parseFloat(value); break;
+                    case "metrics": options.metricsFile = new File(value); break;
+                    default:
+                        if ( ! STAGES.contains(name) ) {
+                            throw new IllegalArgumentException("no option --" + name);
+                        }
+                        options.threads.put(name, Integer.parseInt(value));
+                }
+            }
+            if (dirs.size() > 0) {
+                options.pageDir = new File(dirs.get(0));
+            }
+            if (dirs.size() > 1) {
+                options.outputDir = new File(dirs.get(1));
+            }
+            // made up answers mustn't end up in the caches live runs use, and recording needs every page sent
+            boolean live = options.offline == null && options.record == null;
+            if ( ! cacheGiven && live ) {
+                options.cacheFile = new File("translation_cache.log");
+            }
+            if ( ! ocrCacheGiven && live ) {
+                options.ocrCacheDir = new File("ocr_cache");
+            }
+            return options;
+        }
+
+        /**
+         * @param seed seed of the service's random latencies and failures
+         * @return offline stand-in for a service, as slow and unreliable as asked
+         */
+        SimulatedService simulatedService(long seed) {
+            return new SimulatedService(latency, jitter, errorRate, errorCode, seed);
+        }
+
+        /**
+         * Apply the pipeline settings that were given.
+         */
+        void configure(ChapterPipeline pipeline) {
+            if (queue != null) {
+                pipeline.setQueueCapacity(queue);
+            }
+            if (roi != null) {
+                pipeline.setBubblesOnly(roi);
+            }
+            if (lines != null) {
+                pipeline.setLineBreaking(lines);
+            }
+            if (expansion != null) {
+                pipeline.setExpansionMode(expansion);
+            }
+            if (format != null) {
+                pipeline.setFormat(format);
+            }
+            if (quality != null) {
+                pipeline.setQuality(quality);
+            }
+            if (metricsFile != null) {
+                pipeline.setMetricsFile(metricsFile);
+            }
+            for (Map.Entry<String, Integer> stage : threads.entrySet()) {
+                pipeline.setThreads(stage.getKey(), stage.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param offline as main's --offline, null if not offline
+     * @param record as main's --record, null if not recording
+     * @param service stand-in for the Vision API, offline
+     * @return recognizer reading pages with the Vision API, or its offline stand-in, or recording its answers
+     */
+    private static TextRecognizerGoogle googleRecognizer(String offline, String record, SimulatedService service)
+            throws IOException {
+        if (offline != null) {
+            OcrBackend ocr = offline.equals("synthetic")
+                    ? new SyntheticOcrBackend(service)
+                    : new RecordedOcrBackend(new File(offline), new SyntheticOcrBackend(SimulatedService.instant()), service);
+            return new TextRecognizerGoogle(Language.JPN, ocr);
+        }
+        if (record != null) {
+            return new TextRecognizerGoogle(Language.JPN,
+                    RecordedOcrBackend.recording(OcrBackend.vision(ImageAnnotatorClient.create()), new File(record)));
+        }
+        return new TextRecognizerGoogle(Language.JPN);
+    }
+}
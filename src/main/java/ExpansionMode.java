@@ -0,0 +1,8 @@
+/**
+ * How a text box is grown to fill its speech bubble.
+ */
+public enum ExpansionMode {
+    GREEDY,             // SpeechBubbleDetector.getLargestExpansion
+    MAXIMAL_RECTANGLE,  // SpeechBubbleDetector.getMaximalRectangle
+    SEGMENTED           // BubbleSegmentation.getMaximalRectangle, falling back on GREEDY outside bubbles
+}
@@ -0,0 +1,112 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fonts from the Fonts/ directory, each TrueType file parsed once, plus every size of them
+ * we've derived and measured since. Safe to share between threads.
+ *
+ * Fitting text to a bubble tries many sizes, and every page has many bubbles:
+ * without this, each paragraph parses the font file again and each size probe derives
+ * a new Font and FontMetrics.
+ */
+public class FontRegistry {
+    private static final String FONT_DIR = "Fonts";
+
+    private final Map<String, Font> fonts = new ConcurrentHashMap<>();
+    // font name -> style -> size -> font
+    private final Map<String, Map<Integer, Map<Float, Font>>> derived = new ConcurrentHashMap<>();
+    private final Map<Font, Map<FontRenderContext, FontMetrics>> metrics = new ConcurrentHashMap<>();
+    private final Map<FontMetrics, int[]> widths = new ConcurrentHashMap<>();
+
+    private static class Shared {
+        static final FontRegistry INSTANCE = new FontRegistry(new File(FONT_DIR));
+    }
+
+    /**
+     * Registry of the fonts in Fonts/ (relative to the working directory), loaded on first use.
+     */
+    public static FontRegistry getShared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Load every .ttf file in the directory.
+     */
+    public FontRegistry(File fontDir) {
+        File[] files = fontDir.listFiles();
+        if (files == null) {
+            System.err.printf("no font directory %s\n", fontDir);
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if ( ! name.toLowerCase().endsWith(".ttf") ) {
+                continue;
+            }
+            try {
+                fonts.put(name.substring(0, name.length() - 4), Font.createFont(Font.TRUETYPE_FONT, f));
+            } catch (FontFormatException | IOException e) {
+                System.err.printf("failed to load font %s: %s\n", f, e);
+            }
+        }
+    }
+
+    /**
+     * @param name file name without the .ttf, eg. "animeace"
+     * @return the font as loaded (1 pt), null if there is no such font
+     */
+    public Font getFont(String name) {
+        return fonts.get(name);
+    }
+
+    /**
+     * Same as font.deriveFont(style, size), but each style and size of a font is only derived once.
+     */
+    public Font derive(Font font, int style, float size) {
+        if (font.isTransformed()) {
+            return font.deriveFont(style, size);
+        }
+        Map<Float, Font> sizes = derived
+                .computeIfAbsent(font.getFontName(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(style, k -> new ConcurrentHashMap<>());
+        Font d = sizes.get(size);
+        if (d == null) {
+            d = font.deriveFont(style, size);
+            Font raced = sizes.putIfAbsent(size, d);
+            if (raced != null) {
+                d = raced;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Same as g2.getFontMetrics(font), but measured only once per font and rendering context.
+     */
+    public FontMetrics getMetrics(Graphics2D g2, Font font) {
+        FontRenderContext frc = g2.getFontRenderContext();
+        Map<FontRenderContext, FontMetrics> byContext =
+                metrics.computeIfAbsent(font, k -> new ConcurrentHashMap<>());
+        FontMetrics m = byContext.get(frc);
+        if (m == null) {
+            m = g2.getFontMetrics(font);
+            FontMetrics raced = byContext.putIfAbsent(frc, m);
+            if (raced != null) {
+                m = raced;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Same as getMetrics(g2, font).getWidths(), worked out only once per font and rendering context.
+     * The array is shared: don't change it.
+     */
+    public int[] getWidths(Graphics2D g2, Font font) {
+        return widths.computeIfAbsent(getMetrics(g2, font), FontMetrics::getWidths);
+    }
+}
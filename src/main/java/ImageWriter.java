@@ -4,24 +4,44 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ImageWriter {
 
     private final BufferedImage img;
     private final SpeechBubbleDetector bubbleDetector;
     private final Translator translator;
+    private BubbleSegmentation bubbleSegmentation;
+    private LineBreaking lineBreaking = LineBreaking.GREEDY;
 
     public ImageWriter(String filepath) {
-        this.img = loadImage(filepath);
+        this(loadImage(filepath), new Translator());
+    }
+
+    /**
+     * @param img page, drawn on in place
+     * @param translator may be shared between writers
+     */
+    public ImageWriter(BufferedImage img, Translator translator) {
+        this.img = img;
         this.bubbleDetector = new SpeechBubbleDetector(this.img);
-        this.translator = new Translator();
+        this.translator = translator;
+    }
+
+    public BufferedImage getImage() {
+        return this.img;
+    }
+
+    /**
+     * @param lineBreaking how translated text is broken into lines in its box
+     */
+    public void setLineBreaking(LineBreaking lineBreaking) {
+        this.lineBreaking = lineBreaking;
     }
 
 
@@ -36,19 +56,21 @@ public class ImageWriter {
         return img;
     }
 
-    private void overlayRect(Rectangle rect) {
-        Graphics g = this.img.getGraphics();
-
-        g.setColor(
-                this.bubbleDetector.calculateSpeechBubbleColor(
-                        new Rectangle(
-                                rect.UL.x - 1,
-                                rect.UL.y - 1,
-                                rect.BR.x + 1,
-                                rect.BR.y + 1
-                        )
+    private Color bubbleBackgroundColor(Rectangle rect) {
+        return this.bubbleDetector.calculateSpeechBubbleColor(
+                new Rectangle(
+                        rect.UL.x - 1,
+                        rect.UL.y - 1,
+                        rect.BR.x + 1,
+                        rect.BR.y + 1
                 )
         );
+    }
+
+    private void overlayRect(Rectangle rect, Color color) {
+        Graphics g = this.img.getGraphics();
+
+        g.setColor(color);
 
         g.fillRect(
                 rect.UL.x,
@@ -59,28 +81,25 @@ public class ImageWriter {
     }
 
     private void overlayText(String text, Rectangle rect) {
+        long started = Metrics.start();
         Graphics g = this.img.getGraphics();
         g.setColor(Color.BLACK);
         text = text.trim().replaceAll(" +", " ");
 
         int fontSize = 20;
-        Font font = new Font("Stencil", Font.PLAIN, fontSize);
-        try {
-            URL fontURL = new URL(new URL("file:"), "Fonts/animeace.ttf");
-            font = Font.createFont(Font.TRUETYPE_FONT, fontURL.openStream());
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        } catch (FontFormatException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        Font font = FontRegistry.getShared().getFont("animeace");
+        if (font == null) {
+            font = new Font("Stencil", Font.PLAIN, fontSize);
         }
         g.setFont(font);
         TextProcessor txtProcessor = new TextProcessor((Graphics2D)g);
+        txtProcessor.setLineBreaking(this.lineBreaking);
         txtProcessor.resizeToFit(text, rect);
         g.setFont(txtProcessor.getFont());
         String[] lines = txtProcessor.splitIntoLines(text, rect.width());
         this.drawStrings((Graphics2D)g, lines, rect);
+        Metrics.observe("render.fontSize", txtProcessor.getFont().getSize());
+        Metrics.stop("render.overlayText", started);
     }
 
 
@@ -97,14 +116,72 @@ public class ImageWriter {
         }
     }
 
+    /**
+     * All bubbles are measured before anything is drawn: the detector's color
+     * statistics are a snapshot of the untouched page.
+     */
     public void writeParagraphs(List<Paragraph> paragraphs) {
+        writeParagraphs(paragraphs, ExpansionMode.GREEDY);
+    }
+
+    public void writeParagraphs(List<Paragraph> paragraphs, ExpansionMode mode) {
+        writeParagraphs(paragraphs, expandParagraphs(paragraphs, mode));
+    }
+
+    /**
+     * Find the area each paragraph may be drawn in. This reads the page as it is now,
+     * so it has to happen before anything is drawn.
+     */
+    public List<Rectangle> expandParagraphs(List<Paragraph> paragraphs, ExpansionMode mode) {
+        List<Rectangle> rects = new ArrayList<>();
         for (Paragraph p : paragraphs) {
             BoundingPoly box = p.getBoundingBox();
             Rectangle rect = toRectangle(box);
-            rect = this.bubbleDetector.getLargestExpansion(rect);
-            overlayRect(rect);
-            String text = paragraphText(p, " ");
-            overlayText(text, rect);
+            rects.add(expand(rect, mode));
+        }
+        return rects;
+    }
+
+    /**
+     * @param paragraphs paragraphs to draw, possibly translated since rects were found
+     * @param rects from expandParagraphs, one per paragraph
+     */
+    public void writeParagraphs(List<Paragraph> paragraphs, List<Rectangle> rects) {
+        List<Color> colors = new ArrayList<>();
+        for (Rectangle rect : rects) {
+            colors.add(bubbleBackgroundColor(rect));
+        }
+
+        for (int i=0; i<paragraphs.size(); i++) {
+            overlayRect(rects.get(i), colors.get(i));
+            String text = paragraphText(paragraphs.get(i), " ");
+            overlayText(text, rects.get(i));
+        }
+    }
+
+    /**
+     * Segmentation of the page as loaded, computed on first use.
+     */
+    public BubbleSegmentation getBubbleSegmentation() {
+        if (this.bubbleSegmentation == null) {
+            this.bubbleSegmentation = new BubbleSegmentation(this.img);
+        }
+        return this.bubbleSegmentation;
+    }
+
+    private Rectangle expand(Rectangle rect, ExpansionMode mode) {
+        switch (mode) {
+            case MAXIMAL_RECTANGLE:
+                return this.bubbleDetector.getMaximalRectangle(rect);
+            case SEGMENTED:
+                Optional<Rectangle> inBubble = this.getBubbleSegmentation().getMaximalRectangle(rect);
+                if (inBubble.isPresent()) {
+                    return inBubble.get();
+                }
+                return this.bubbleDetector.getLargestExpansion(rect);
+            case GREEDY:
+            default:
+                return this.bubbleDetector.getLargestExpansion(rect);
         }
     }
 
@@ -168,16 +245,7 @@ public class ImageWriter {
     }
 
     private static Rectangle toRectangle(BoundingPoly box) {
-        int xmax, ymax, xmin,ymin;
-        xmax = ymax = - (1 << 30);
-        xmin = ymin = (1 << 30);
-        for (Vertex v : box.getVerticesList()) {
-            if (v.getX() > xmax) { xmax = v.getX(); }
-            if (v.getY() > ymax) { ymax = v.getY(); }
-            if (v.getX() < xmin) { xmin = v.getX(); }
-            if (v.getY() < ymin) { ymin = v.getY(); }
-        }
-        return new Rectangle(xmin, ymin, xmax, ymax);
+        return Rectangle.fromBoundingPoly(box);
     }
 
     /**
@@ -186,32 +254,48 @@ public class ImageWriter {
      *
      * @param paragraphs list of paragraphs
      */
-    private void resizeParagraphs(List<Paragraph> paragraphs) {
+    void resizeParagraphs(List<Paragraph> paragraphs) {
+        long started = Metrics.start();
         for (int i=0; i<paragraphs.size(); i++) {
             Paragraph p = paragraphs.get(i);
             Rectangle rect = toRectangle(p.getBoundingBox());
-            rect = new SpeechBubbleDetector(this.img).fixParagraph(rect);
+            rect = this.bubbleDetector.fixParagraph(rect);
             paragraphs.set(i, p.toBuilder()
                     .setBoundingBox(rect.toBoundingPoly())
                     .build()
                 );
         }
+        Metrics.stop("detect.resizeParagraphs", started);
     }
 
-    private List<Paragraph> translatedParagraphs(List<Paragraph> paragraphs) {
-        List<Paragraph> newParagraphs = new ArrayList<>();
-        for (int i=0; i<paragraphs.size(); i++) {
-            Paragraph p = paragraphs.get(i);
-            String jText = paragraphText(p, "");
-            String eText = this.translator.translateJapaneseToEnglish(jText);
+    /**
+     * The whole page is translated at once, rather than one request per paragraph.
+     */
+    List<Paragraph> translatedParagraphs(List<Paragraph> paragraphs) {
+        return RemoteCalls.join(translatedParagraphsAsync(paragraphs));
+    }
 
-            newParagraphs.add( p.toBuilder()
-                    .clearWords()
-                    .addAllWords(toWords(eText))
-                    .build()
-            );
+    /**
+     * Same as translatedParagraphs, without waiting for the translation to come back.
+     */
+    CompletableFuture<List<Paragraph>> translatedParagraphsAsync(List<Paragraph> paragraphs) {
+        long started = Metrics.start();
+        List<String> jTexts = new ArrayList<>();
+        for (Paragraph p : paragraphs) {
+            jTexts.add(paragraphText(p, ""));
         }
-        return newParagraphs;
+        return this.translator.translateAsync(jTexts, "ja", "en").thenApply(eTexts -> {
+            List<Paragraph> newParagraphs = new ArrayList<>();
+            for (int i=0; i<paragraphs.size(); i++) {
+                newParagraphs.add( paragraphs.get(i).toBuilder()
+                        .clearWords()
+                        .addAllWords(toWords(eTexts.get(i)))
+                        .build()
+                );
+            }
+            Metrics.stop("translate.translatedParagraphs", started);
+            return newParagraphs;
+        });
     }
 
     private List<Word> toWords(String text) {
@@ -227,25 +311,50 @@ public class ImageWriter {
         return words;
     }
 
+    /**
+     * ImageWriter [page [output file]]
+     *
+     * Shows the translated page in a window, or writes it to the output file (format from its
+     * extension) if one is given or there is no display, eg. under java.awt.headless=true.
+     */
     public static void main(String[] args) {
-        String filepath = "random_manga_images/easy/dagashi.jpeg";
+        String filepath = args.length > 0 ? args[0] : "random_manga_images/easy/dagashi.jpeg";
 
-        TextRecognizerGoogle txtRec = new TextRecognizerGoogle(Language.JPN);
         java.util.List<Paragraph> paragraphs = new ArrayList<>();
 
 
 
-        try {
-            paragraphs = txtRec.detectDocumentText(filepath);
+        // the page is read from disk once, for both OCR and drawing
+        PageImage page = null;
+        try (TextRecognizerGoogle txtRec = new TextRecognizerGoogle(Language.JPN)) {
+            page = PageImage.read(filepath);
+            paragraphs = txtRec.detectDocumentTextFromBytes(Collections.singletonList(page.getBytes())).get(0);
         } catch(Exception e) {
             System.err.printf("Exception %s caught!", e.toString());
             System.exit(0);
         }
 
-        ImageWriter iw = new ImageWriter(filepath);
+        ImageWriter iw;
+        try {
+            iw = new ImageWriter(page.getImage(), new Translator());
+        } catch (IOException e) {
+            System.err.printf("failed to decode image %s\n", filepath);
+            return;
+        }
         iw.resizeParagraphs(paragraphs);
 //        iw.drawSpeechBubbles(paragraphs);
         iw.writeParagraphs( iw.translatedParagraphs(paragraphs) );
-        iw.displayImage();
+
+        if (args.length < 2 && ! GraphicsEnvironment.isHeadless()) {
+            iw.displayImage();
+            return;
+        }
+        File output = new File(args.length > 1 ? args[1] : "translated_" + new File(filepath).getName());
+        String name = output.getName();
+        try (PageEncoder encoder = new PageEncoder(name.substring(name.lastIndexOf('.') + 1))) {
+            encoder.write(iw.getImage(), output);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.printf("failed to write %s: %s\n", output, e);
+        }
     }
 }
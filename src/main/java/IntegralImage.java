@@ -0,0 +1,106 @@
+/**
+ * Summed-area tables over an image, so that the average color and color
+ * standard deviation of any axis aligned rectangle come back in O(1).
+ *
+ * Built once per image. It is a snapshot: anything drawn onto the image
+ * afterwards is NOT reflected here.
+ *
+ * Rectangles are inclusive on both ends, same as Rectangle.
+ */
+public class IntegralImage {
+    private final int width, height;
+    private final int stride;
+
+    // Per-channel sums are kept in ints and allowed to wrap around: the
+    // four-corner difference is still exact as long as the sum over the
+    // queried rectangle itself fits, i.e. for any rectangle under ~8.4M pixels.
+    private final int[] sumR, sumG, sumB;
+
+    // Squares only ever get used pooled over all three channels (see colorStdev),
+    // so one table of R^2 + G^2 + B^2 is enough.
+    private final long[] sumSq;
+
+    public IntegralImage(PixelReader pixels) {
+        this.width = pixels.getWidth();
+        this.height = pixels.getHeight();
+        this.stride = width + 1;
+
+        int size = stride * (height + 1);
+        sumR = new int[size];
+        sumG = new int[size];
+        sumB = new int[size];
+        sumSq = new long[size];
+
+        for (int y = 0; y < height; y++) {
+            int rowR = 0, rowG = 0, rowB = 0;
+            long rowSq = 0;
+            int above = y * stride + 1;
+            int here = above + stride;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels.rgb(x, y);
+                int R = PixelReader.red(rgb);
+                int G = PixelReader.green(rgb);
+                int B = PixelReader.blue(rgb);
+                rowR += R;
+                rowG += G;
+                rowB += B;
+                rowSq += R * R + G * G + B * B;
+                sumR[here + x] = sumR[above + x] + rowR;
+                sumG[here + x] = sumG[above + x] + rowG;
+                sumB[here + x] = sumB[above + x] + rowB;
+                sumSq[here + x] = sumSq[above + x] + rowSq;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private int sum(int[] table, int xmin, int ymin, int xmax, int ymax) {
+        int lo = ymin * stride, hi = (ymax + 1) * stride;
+        return table[hi + xmax + 1] - table[hi + xmin] - table[lo + xmax + 1] + table[lo + xmin];
+    }
+
+    private long sum(long[] table, int xmin, int ymin, int xmax, int ymax) {
+        int lo = ymin * stride, hi = (ymax + 1) * stride;
+        return table[hi + xmax + 1] - table[hi + xmin] - table[lo + xmax + 1] + table[lo + xmin];
+    }
+
+    /**
+     * Per-channel mean, rounded down, same as summing the pixels and dividing.
+     *
+     * @return average color packed as 0xRRGGBB
+     */
+    public int averageRGB(int xmin, int ymin, int xmax, int ymax) {
+        int n = (xmax - xmin + 1) * (ymax - ymin + 1);
+        int R = sum(sumR, xmin, ymin, xmax, ymax) / n;
+        int G = sum(sumG, xmin, ymin, xmax, ymax) / n;
+        int B = sum(sumB, xmin, ymin, xmax, ymax) / n;
+        return (R << 16) | (G << 8) | B;
+    }
+
+    /**
+     * Standard deviation of every channel sample in the rectangle, pooled over R, G and B,
+     * measured from the (rounded down) average color of the rectangle.
+     */
+    public float colorStdev(int xmin, int ymin, int xmax, int ymax) {
+        long n = (long)(xmax - xmin + 1) * (ymax - ymin + 1);
+
+        // sum of (p - a)^2 = sum(p^2) - 2a * sum(p) + n * a^2, per channel
+        long total = sum(sumSq, xmin, ymin, xmax, ymax);
+        int[][] tables = new int[][]{sumR, sumG, sumB};
+        for (int[] table : tables) {
+            long s = sum(table, xmin, ymin, xmax, ymax);
+            long a = s / n;
+            total += n * a * a - 2 * a * s;
+        }
+
+        float variance = total / (3f * n);
+        return (float)Math.sqrt(variance);
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * How text is broken into lines to fit a text box.
+ */
+public enum LineBreaking {
+    GREEDY,     // fill each line as far as it goes
+    BALANCED    // fewest lines, then lines as even as possible (TextFitter.balancedLines)
+}
@@ -0,0 +1,293 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers, counters and histograms, by name (eg. "ocr.detectDocumentText"). Safe to share between threads.
+ *
+ * Code is instrumented through the static methods:
+ *
+ *      long start = Metrics.start();
+ *      ...
+ *      Metrics.stop("render.overlayText", start);
+ *
+ * Everything goes into the shared registry, and also into the registry the current thread is
+ * working for, if any (see enter): ChapterPipeline gives every page its own, for per-page stats.
+ *
+ * Metrics are off until setEnabled(true). While off, start() returns 0 without reading the clock,
+ * and stop / count / observe return straight away, so instrumented code costs a field read.
+ */
+public class Metrics {
+    private static volatile boolean enabled = false;
+    private static final Metrics SHARED = new Metrics();
+    private static final ThreadLocal<Metrics> current = new ThreadLocal<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+    /**
+     * Count, sum, max, and counts in power of two buckets: bucket k holds values in (2^(k-1), 2^k],
+     * bucket 0 values <= 1.
+     */
+    public static class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long value) {
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+            buckets.incrementAndGet(bucket(value));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return getCount() == 0 ? 0 : max.get();
+        }
+
+        static int bucket(long value) {
+            return value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        }
+
+        /**
+         * @return number of values <= 2^k (all values, for k >= 63)
+         */
+        public long countAtMost(int k) {
+            long n = 0;
+            for (int b = 0; b <= Math.min(k, 63); b++) {
+                n += buckets.get(b);
+            }
+            return n;
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return registry of everything recorded, by any thread
+     */
+    public static Metrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Also record what this thread records from now on into metrics.
+     *
+     * @param metrics registry, or null to stop
+     * @return the registry this thread was recording into before, to enter again when done
+     */
+    public static Metrics enter(Metrics metrics) {
+        Metrics previous = current.get();
+        if (metrics == null) {
+            current.remove();
+        }
+        else {
+            current.set(metrics);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the registry this thread is recording into besides the shared one, null if none;
+     *          for work handed to another thread to enter there
+     */
+    public static Metrics current() {
+        return current.get();
+    }
+
+    /**
+     * @return start time for stop, 0 if metrics are off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since start in the timer.
+     */
+    public static void stop(String timer, long start) {
+        if ( ! enabled || start == 0 ) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        SHARED.timer(timer).record(nanos);
+        Metrics scope = current.get();
+        if (scope != null) {
+            scope.timer(timer).record(nanos);
+        }
+    }
+
+    public static void count(String counter, long n) {
+        if ( ! enabled ) {
+            return;
+        }
+        SHARED.counter(counter).add(n);
+        Metrics scope = current.get();
+        if (scope != null) {
+            scope.counter(counter).add(n);
+        }
+    }
+
+    public static void observe(String histogram, long value) {
+        if ( ! enabled ) {
+            return;
+        }
+        SHARED.histogram(histogram).record(value);
+        Metrics scope = current.get();
+        if (scope != null) {
+            scope.histogram(histogram).record(value);
+        }
+    }
+
+    private LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    private Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    private Histogram timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * @return value of the counter, 0 if nothing was counted
+     */
+    public long getCount(String counter) {
+        LongAdder c = counters.get(counter);
+        return c == null ? 0 : c.sum();
+    }
+
+    /**
+     * @return the timer (in nanoseconds), null if nothing was timed
+     */
+    public Histogram getTimer(String timer) {
+        return timers.get(timer);
+    }
+
+    /**
+     * @return the histogram, null if nothing was observed
+     */
+    public Histogram getHistogram(String histogram) {
+        return histograms.get(histogram);
+    }
+
+    /**
+     * One JSON object on one line, eg.
+     *  {"page":"dagashi.jpeg","timers":{"render.overlayText":{"count":7,"sum_ms":12.5,"max_ms":3.1}},
+     *   "counters":{...},"histograms":{"render.fontSize":{"count":7,"sum":140,"max":31}}}
+     *
+     * @param page what the stats are of, eg. a page's file name, or "all"
+     */
+    public String toJson(String page) {
+        StringBuilder json = new StringBuilder("{\"page\":").append(quote(page));
+
+        json.append(",\"timers\":{");
+        String sep = "";
+        for (Map.Entry<String, Histogram> t : new TreeMap<>(timers).entrySet()) {
+            Histogram h = t.getValue();
+            json.append(sep).append(quote(t.getKey()))
+                    .append(String.format(Locale.ROOT, ":{\"count\":%d,\"sum_ms\":%.3f,\"max_ms\":%.3f}",
+                            h.getCount(), h.getSum() / 1e6, h.getMax() / 1e6));
+            sep = ",";
+        }
+
+        json.append("},\"counters\":{");
+        sep = "";
+        for (Map.Entry<String, LongAdder> c : new TreeMap<>(counters).entrySet()) {
+            json.append(sep).append(quote(c.getKey())).append(':').append(c.getValue().sum());
+            sep = ",";
+        }
+
+        json.append("},\"histograms\":{");
+        sep = "";
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            json.append(sep).append(quote(e.getKey()))
+                    .append(String.format(Locale.ROOT, ":{\"count\":%d,\"sum\":%d,\"max\":%d}",
+                            h.getCount(), h.getSum(), h.getMax()));
+            sep = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Everything in Prometheus' text exposition format: counters as counters, and timers (in seconds)
+     * and histograms as histograms with power of two buckets. Names get a "manga_" prefix,
+     * with anything Prometheus doesn't allow in a name replaced by '_'.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LongAdder> c : new TreeMap<>(counters).entrySet()) {
+            String name = metricName(c.getKey()) + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(c.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> t : new TreeMap<>(timers).entrySet()) {
+            appendHistogram(text, metricName(t.getKey()) + "_seconds", t.getValue(), 1e-9);
+        }
+        for (Map.Entry<String, Histogram> h : new TreeMap<>(histograms).entrySet()) {
+            appendHistogram(text, metricName(h.getKey()), h.getValue(), 1);
+        }
+        return text.toString();
+    }
+
+    private static String metricName(String name) {
+        return "manga_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    /**
+     * Buckets le=2^k, from the smallest to the largest value recorded.
+     */
+    private static void appendHistogram(StringBuilder text, String name, Histogram h, double scale) {
+        text.append("# TYPE ").append(name).append(" histogram\n");
+        int highest = Histogram.bucket(h.getMax());
+        int lowest = 0;
+        while (lowest < highest && h.countAtMost(lowest) == 0) {
+            lowest ++;
+        }
+        for (int k = lowest; k <= highest && k < 63; k++) {
+            text.append(String.format(Locale.ROOT, "%s_bucket{le=\"%s\"} %d\n", name, (double)(1L << k) * scale, h.countAtMost(k)));
+        }
+        text.append(String.format(Locale.ROOT, "%s_bucket{le=\"+Inf\"} %d\n", name, h.getCount()));
+        text.append(String.format(Locale.ROOT, "%s_sum %s\n", name, h.getSum() * scale));
+        text.append(String.format(Locale.ROOT, "%s_count %d\n", name, h.getCount()));
+    }
+}
@@ -0,0 +1,38 @@
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+
+import java.util.List;
+
+/**
+ * Where TextRecognizerGoogle sends its requests: the Vision API (ImageAnnotatorClient),
+ * or a stand-in for running without a network (SyntheticOcrBackend, RecordedOcrBackend).
+ */
+public interface OcrBackend extends AutoCloseable {
+    /**
+     * Same as ImageAnnotatorClient.batchAnnotateImages: one response per request, in order.
+     */
+    BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) throws Exception;
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @return backend sending every request to the Vision API through the client,
+     *          closing the client when closed
+     */
+    static OcrBackend vision(ImageAnnotatorClient client) {
+        return new OcrBackend() {
+            @Override
+            public BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) {
+                return client.batchAnnotateImages(requests);
+            }
+
+            @Override
+            public void close() {
+                client.shutdown();
+            }
+        };
+    }
+}
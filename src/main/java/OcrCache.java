@@ -0,0 +1,186 @@
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Recognized paragraphs of pages we've already sent through OCR, so re-running a job
+ * on the same scans doesn't pay for OCR again.
+ *
+ * A page is found by the SHA-256 of its image bytes plus the recognizer and language,
+ * so an edited page, or the same page read by another recognizer, is a different entry.
+ * Each entry is a file in the cache directory, holding the page's paragraphs as
+ * length-delimited protobuf messages.
+ *
+ * Once the files take up more than a set number of bytes, the least recently used go first.
+ */
+public class OcrCache {
+    private static final String SUFFIX = ".pb";
+
+    private final File dir;
+    private final long maxBytes;
+    private long bytes = 0;
+    private long hits = 0, misses = 0;
+
+    /**
+     * @param dir cache directory, created if it doesn't exist
+     * @param maxBytes most bytes of entries to keep
+     */
+    public OcrCache(File dir, long maxBytes) throws IOException {
+        if ( ! dir.isDirectory() && ! dir.mkdirs() ) {
+            throw new IOException("failed to create OCR cache directory " + dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        for (File f : entries()) {
+            bytes += f.length();
+        }
+    }
+
+    /**
+     * @param image encoded image, as sent to the recognizer
+     * @param recognizer which recognizer, eg. "google"
+     */
+    public static String key(ByteString image, String recognizer, Language language) {
+        return digest(image, "\0" + recognizer + "\0" + language);
+    }
+
+    /**
+     * @return SHA-256 of the bytes followed by the suffix in UTF-8, in hex
+     */
+    static String digest(ByteString bytes, String suffix) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM has SHA-256
+        }
+        digest.update(bytes.asReadOnlyByteBuffer());
+        digest.update(suffix.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private File file(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    /**
+     * @return the cached paragraphs, null if there are none
+     */
+    public synchronized List<Paragraph> get(String key) {
+        File f = file(key);
+        if ( ! f.isFile() ) {
+            misses ++;
+            return null;
+        }
+
+        List<Paragraph> paragraphs = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+            Paragraph p;
+            while ((p = Paragraph.parseDelimitedFrom(in)) != null) {
+                paragraphs.add(p);
+            }
+        } catch (IOException e) {
+            System.err.printf("dropping unreadable OCR cache entry %s: %s\n", f, e);
+            remove(f);
+            misses ++;
+            return null;
+        }
+        f.setLastModified(System.currentTimeMillis());
+        hits ++;
+        return paragraphs;
+    }
+
+    public synchronized void put(String key, List<Paragraph> paragraphs) {
+        File f = file(key);
+        File tmp = new File(dir, key + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                for (Paragraph p : paragraphs) {
+                    p.writeDelimitedTo(out);
+                }
+            }
+            long old = f.isFile() ? f.length() : 0;
+            // readers never see a half written entry
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            bytes += f.length() - old;
+        } catch (IOException e) {
+            System.err.printf("failed to write OCR cache entry %s: %s\n", f, e);
+            tmp.delete();
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        if (bytes <= maxBytes) {
+            return;
+        }
+        File[] files = entries();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (bytes <= maxBytes) {
+                break;
+            }
+            remove(f);
+        }
+    }
+
+    private void remove(File f) {
+        long length = f.length();
+        if (f.delete()) {
+            bytes -= length;
+        }
+    }
+
+    private File[] entries() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * @return bytes taken up by entries
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %.1f MB", hits, misses, bytes / 1e6);
+    }
+}
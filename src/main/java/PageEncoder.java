@@ -0,0 +1,152 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Encodes rendered pages to files (PNG, JPEG, or any other format an ImageIO plugin provides),
+ * from any number of threads at once, with no display needed.
+ *
+ * ImageIO.write looks up a writer and builds its parameters for every image; here each thread
+ * gets its own javax.imageio.ImageWriter and ImageWriteParam, made once and reused for every page
+ * it encodes. Writers aren't thread safe, so they're never shared.
+ */
+public class PageEncoder implements Closeable {
+    // formats that keep transparency; anything else gets pages flattened onto white
+    private static final Set<String> ALPHA_FORMATS = new HashSet<>(Arrays.asList("png", "gif", "tif", "tiff", "webp"));
+
+    private final String format;
+    private final float quality;
+    private final ThreadLocal<Encoder> encoders;
+    private final List<javax.imageio.ImageWriter> writers = new ArrayList<>();
+
+    private static class Encoder {
+        final javax.imageio.ImageWriter writer;
+        final ImageWriteParam param;
+
+        Encoder(javax.imageio.ImageWriter writer, ImageWriteParam param) {
+            this.writer = writer;
+            this.param = param;
+        }
+    }
+
+    /**
+     * Encode with the writer's default quality.
+     */
+    public PageEncoder(String format) {
+        this(format, -1);
+    }
+
+    /**
+     * @param format informal name of an ImageIO writer, eg. "png" or "jpeg"
+     * @param quality compression quality from 0 (smallest) to 1 (best), for formats that have one
+     *                (JPEG; PNG's deflate level on Java 9+). Negative for the writer's default.
+     * @throws IllegalArgumentException if no ImageIO writer handles the format
+     */
+    public PageEncoder(String format, float quality) {
+        if ( ! ImageIO.getImageWritersByFormatName(format).hasNext() ) {
+            throw new IllegalArgumentException("no ImageIO writer for " + format);
+        }
+        if (quality > 1) {
+            throw new IllegalArgumentException("quality must be at most 1, not " + quality);
+        }
+        this.format = format;
+        this.quality = quality;
+        this.encoders = ThreadLocal.withInitial(this::newEncoder);
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    private Encoder newEncoder() {
+        Iterator<javax.imageio.ImageWriter> found = ImageIO.getImageWritersByFormatName(format);
+        javax.imageio.ImageWriter writer = found.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (quality >= 0 && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null && param.getCompressionTypes() != null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            param.setCompressionQuality(quality);
+        }
+        synchronized (writers) {
+            writers.add(writer);
+        }
+        return new Encoder(writer, param);
+    }
+
+    /**
+     * Encode img into file, replacing whatever was there.
+     */
+    public void write(BufferedImage img, File file) throws IOException {
+        long started = Metrics.start();
+        Encoder encoder = encoders.get();
+        BufferedImage encodable = encodable(format, encoder.writer, img);
+        Files.deleteIfExists(file.toPath());
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            if (out == null) {
+                throw new IOException("can't write to " + file);
+            }
+            encoder.writer.setOutput(out);
+            try {
+                encoder.writer.write(null, new IIOImage(encodable, null, null), encoder.param);
+            } finally {
+                encoder.writer.setOutput(null);
+            }
+        }
+        Metrics.stop("image.encode", started);
+    }
+
+    /**
+     * @return whether the format can store transparency
+     */
+    static boolean storesAlpha(String format) {
+        return ALPHA_FORMATS.contains(format.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return img, or a copy flattened onto white if it has transparency the format can't store,
+     *          or the writer can't encode its type. The Java 8 JPEG writer takes ARGB and writes
+     *          a 4 channel JPEG few viewers show right, so transparency isn't left to the writer.
+     */
+    private static BufferedImage encodable(String format, javax.imageio.ImageWriter writer, BufferedImage img) {
+        boolean loseAlpha = img.getColorModel().hasAlpha() && ! storesAlpha(format);
+        if ( ! loseAlpha
+                && writer.getOriginatingProvider().canEncodeImage(ImageTypeSpecifier.createFromRenderedImage(img))) {
+            return img;
+        }
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = rgb.createGraphics();
+        g2.drawImage(img, 0, 0, Color.WHITE, null);
+        g2.dispose();
+        return rgb;
+    }
+
+    /**
+     * Release every thread's writer. Don't write after this.
+     */
+    @Override
+    public void close() {
+        synchronized (writers) {
+            for (javax.imageio.ImageWriter writer : writers) {
+                writer.dispose();
+            }
+            writers.clear();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A page read from disk exactly once: its encoded bytes (eg. JPEG), as sent to OCR,
+ * and the image decoded from those same bytes.
+ *
+ * The file is memory mapped and its channel closed straight away; the bytes are wrapped
+ * in a ByteString without copying them. The mapping treats the file as read only,
+ * so don't change the file while the page is in use.
+ */
+public class PageImage {
+    private final ByteString bytes;
+    private BufferedImage image;
+
+    private PageImage(ByteString bytes) {
+        this.bytes = bytes;
+    }
+
+    public static PageImage read(String filePath) throws IOException {
+        return read(Paths.get(filePath));
+    }
+
+    public static PageImage read(Path path) throws IOException {
+        return new PageImage(readBytes(path));
+    }
+
+    /**
+     * @return contents of the file, memory mapped
+     */
+    public static ByteString readBytes(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return UnsafeByteOperations.unsafeWrap(mapped);
+        }
+    }
+
+    /**
+     * @return the encoded bytes of the page
+     */
+    public ByteString getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the page decoded, decoding it on first call
+     * @throws IOException if the bytes are not an image ImageIO can read
+     */
+    public synchronized BufferedImage getImage() throws IOException {
+        if (image == null) {
+            long started = Metrics.start();
+            try (InputStream in = bytes.newInput()) {
+                image = ImageIO.read(in);
+            }
+            Metrics.stop("image.decode", started);
+            if (image == null) {
+                throw new IOException("not an image");
+            }
+        }
+        return image;
+    }
+}
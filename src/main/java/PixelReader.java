@@ -0,0 +1,134 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads packed 0xRRGGBB pixels straight out of the backing array of a BufferedImage,
+ * without going through getRGB() or allocating a Color per pixel.
+ *
+ * Reads are live: anything drawn onto the image afterwards is visible here.
+ * Image types whose raster layout we don't understand fall back to img.getRGB(),
+ * so the result is always the same as new Color(img.getRGB(x, y)).
+ */
+public class PixelReader {
+    private final BufferedImage img;
+    private final int[] ints;
+    private final byte[] bytes;
+    private final int base;
+    private final int scanlineStride;
+    private final int pixelStride;
+    private final int rOffset, gOffset, bOffset;
+    private final int[] grayLookup;
+
+    public PixelReader(BufferedImage img) {
+        this.img = img;
+
+        int[] ints = null;
+        byte[] bytes = null;
+        int base = 0, scanlineStride = 0, pixelStride = 1;
+        int rOffset = 0, gOffset = 0, bOffset = 0;
+        int[] grayLookup = null;
+
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+                    ints = ((DataBufferInt) db).getData();
+                    scanlineStride = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+                    base = db.getOffset() - ty * scanlineStride - tx;
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+                    ComponentSampleModel csm = (ComponentSampleModel) sm;
+                    int[] bandOffsets = csm.getBandOffsets();
+                    bytes = ((DataBufferByte) db).getData();
+                    scanlineStride = csm.getScanlineStride();
+                    pixelStride = csm.getPixelStride();
+                    base = db.getOffset() - ty * scanlineStride - tx * pixelStride;
+                    // bands are always in R, G, B(, A) order; the offsets tell us where each one lives
+                    rOffset = bandOffsets[0];
+                    gOffset = bandOffsets[1];
+                    bOffset = bandOffsets[2];
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+                    ComponentSampleModel csm = (ComponentSampleModel) sm;
+                    bytes = ((DataBufferByte) db).getData();
+                    scanlineStride = csm.getScanlineStride();
+                    pixelStride = csm.getPixelStride();
+                    base = db.getOffset() + csm.getBandOffsets()[0] - ty * scanlineStride - tx * pixelStride;
+                    // the gray color model is not linear in sRGB, so ask it once for every possible sample
+                    grayLookup = new int[256];
+                    for (int i = 0; i < 256; i++) {
+                        grayLookup[i] = img.getColorModel().getRGB(new byte[]{(byte) i}) & 0xFFFFFF;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+
+        this.ints = ints;
+        this.bytes = bytes;
+        this.base = base;
+        this.scanlineStride = scanlineStride;
+        this.pixelStride = pixelStride;
+        this.rOffset = rOffset;
+        this.gOffset = gOffset;
+        this.bOffset = bOffset;
+        this.grayLookup = grayLookup;
+    }
+
+    public int getWidth() {
+        return img.getWidth();
+    }
+
+    public int getHeight() {
+        return img.getHeight();
+    }
+
+    /**
+     * @return pixel at (x, y) packed as 0xRRGGBB, alpha stripped
+     */
+    public int rgb(int x, int y) {
+        if (ints != null) {
+            return ints[base + y * scanlineStride + x] & 0xFFFFFF;
+        }
+        if (grayLookup != null) {
+            return grayLookup[bytes[base + y * scanlineStride + x * pixelStride] & 0xFF];
+        }
+        if (bytes != null) {
+            int i = base + y * scanlineStride + x * pixelStride;
+            return ((bytes[i + rOffset] & 0xFF) << 16)
+                    | ((bytes[i + gOffset] & 0xFF) << 8)
+                    | (bytes[i + bOffset] & 0xFF);
+        }
+        return img.getRGB(x, y) & 0xFFFFFF;
+    }
+
+    public static int red(int rgb) {
+        return (rgb >> 16) & 0xFF;
+    }
+
+    public static int green(int rgb) {
+        return (rgb >> 8) & 0xFF;
+    }
+
+    public static int blue(int rgb) {
+        return rgb & 0xFF;
+    }
+}
@@ -0,0 +1,124 @@
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.protobuf.ByteString;
+import com.google.rpc.Status;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vision API responses recorded to a directory, one file per image (named by the SHA-256
+ * of the image's bytes), and played back from there.
+ *
+ * Record with recording(backend, dir) around the live backend; replay with a RecordedOcrBackend
+ * on the same directory. Images that weren't recorded go to the fallback backend if there is one,
+ * otherwise get an error response, as images the Vision API can't read do.
+ */
+public class RecordedOcrBackend implements OcrBackend {
+    private static final String SUFFIX = ".response";
+
+    private final File dir;
+    private final OcrBackend fallback;
+    private final SimulatedService service;
+
+    /**
+     * @param dir directory responses were recorded to
+     * @param fallback backend for images not recorded, or null
+     * @param service how long replaying takes and how often it fails
+     */
+    public RecordedOcrBackend(File dir, OcrBackend fallback, SimulatedService service) {
+        this.dir = dir;
+        this.fallback = fallback;
+        this.service = service;
+    }
+
+    /**
+     * @return backend passing requests on to the given one, saving every response it gets into dir
+     */
+    public static OcrBackend recording(OcrBackend backend, File dir) {
+        if ( ! dir.isDirectory() && ! dir.mkdirs() ) {
+            System.err.printf("failed to create recording directory %s\n", dir);
+        }
+        return new OcrBackend() {
+            @Override
+            public BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) throws Exception {
+                BatchAnnotateImagesResponse response = backend.batchAnnotateImages(requests);
+                for (int i = 0; i < requests.size(); i++) {
+                    save(file(dir, requests.get(i).getImage().getContent()), response.getResponses(i));
+                }
+                return response;
+            }
+
+            @Override
+            public void close() {
+                backend.close();
+            }
+        };
+    }
+
+    private static File file(File dir, ByteString image) {
+        return new File(dir, OcrCache.digest(image, "") + SUFFIX);
+    }
+
+    private static void save(File f, AnnotateImageResponse response) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            response.writeTo(out);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) throws Exception {
+        service.call("batchAnnotateImages");
+        AnnotateImageResponse[] responses = new AnnotateImageResponse[requests.size()];
+        List<AnnotateImageRequest> missing = new ArrayList<>();
+        List<Integer> missingAt = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            File f = file(dir, requests.get(i).getImage().getContent());
+            if (f.isFile()) {
+                try (InputStream in = new FileInputStream(f)) {
+                    responses[i] = AnnotateImageResponse.parseFrom(in);
+                }
+            }
+            else if (fallback != null) {
+                missing.add(requests.get(i));
+                missingAt.add(i);
+            }
+            else {
+                responses[i] = AnnotateImageResponse.newBuilder()
+                        .setError(Status.newBuilder().setCode(5).setMessage("no recorded response for this image"))
+                        .build();
+            }
+        }
+        if ( ! missing.isEmpty() ) {
+            BatchAnnotateImagesResponse answered = fallback.batchAnnotateImages(missing);
+            for (int k = 0; k < missing.size(); k++) {
+                responses[missingAt.get(k)] = answered.getResponses(k);
+            }
+        }
+
+        BatchAnnotateImagesResponse.Builder response = BatchAnnotateImagesResponse.newBuilder();
+        for (AnnotateImageResponse r : responses) {
+            response.addResponses(r);
+        }
+        return response.build();
+    }
+
+    @Override
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 
 
 public class Rectangle {
+    private static final int INF = (1 << 30);
     public vertex UL, BR;
 
     /**
@@ -23,6 +24,39 @@ public class Rectangle {
         this.BR = BR;
     }
 
+    /**
+     * Axis aligned bounding box of a polygon, any number of sides.
+     * A polygon with no vertices gives an empty box (xmin > xmax).
+     */
+    public static Rectangle fromBoundingPoly(BoundingPolyOrBuilder poly) {
+        int xmin, xmax, ymin, ymax;
+        xmin = ymin = INF;
+        xmax = ymax = - INF;
+
+        for (int i = 0; i < poly.getVerticesCount(); i++) {
+            Vertex v = poly.getVertices(i);
+            if (v.getX() < xmin) xmin = v.getX();
+            if (v.getY() < ymin) ymin = v.getY();
+            if (v.getX() > xmax) xmax = v.getX();
+            if (v.getY() > ymax) ymax = v.getY();
+        }
+        return new Rectangle(xmin, ymin, xmax, ymax);
+    }
+
+    /**
+     * @return the part of this inside a width x height image, null if there is none
+     */
+    public Rectangle clampTo(int width, int height) {
+        int xmin = Math.max(0, xmin());
+        int ymin = Math.max(0, ymin());
+        int xmax = Math.min(width - 1, xmax());
+        int ymax = Math.min(height - 1, ymax());
+        if (xmin > xmax || ymin > ymax) {
+            return null;
+        }
+        return new Rectangle(xmin, ymin, xmax, ymax);
+    }
+
     public int height() {
         return BR.y - UL.y;
     }
@@ -0,0 +1,379 @@
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.BaseServiceException;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs calls to a remote service (the Vision API, the Translation API, or their stand-ins)
+ * for callers that don't want to wait on them: call() returns a CompletableFuture straight away.
+ *
+ * At most maxInFlight calls are running at once; more wait in line, without holding a thread.
+ * A call taking longer than the timeout is interrupted and counts as failed, and failures the
+ * service says are worth retrying (429s, 5xxs, timeouts) are retried after an exponential,
+ * jittered backoff, up to maxAttempts tries in all.
+ *
+ * Calls run on their own threads: virtual threads on Java 21+, otherwise a pool of maxInFlight.
+ * Once closed, calls waiting to run and calls made after fail with a RejectedExecutionException.
+ */
+public class RemoteCalls implements AutoCloseable {
+    // times out, backs off, and times TranslationBatcher's windows; never runs anything that takes long
+    static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "remote-calls-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        // most timeouts are cancelled, don't keep them around until they would have gone off
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String name;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final Executor executor;
+    private final Semaphore permits;
+    private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    private long initialBackoffMillis = 250;
+    private long maxBackoffMillis = 10_000;
+
+    /**
+     * @param name what the calls are to, eg. "ocr", for metrics
+     * @param maxInFlight most calls running at once
+     * @param timeoutMillis longest a single try may take, 0 for no limit
+     * @param maxAttempts most tries per call, including the first
+     */
+    public RemoteCalls(String name, int maxInFlight, long timeoutMillis, int maxAttempts) {
+        this(name, maxInFlight, timeoutMillis, maxAttempts, newExecutor(name, maxInFlight));
+    }
+
+    private RemoteCalls(String name, int maxInFlight, long timeoutMillis, int maxAttempts, Executor executor) {
+        if (maxInFlight < 1 || maxAttempts < 1 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("need at least one call in flight and one attempt, and no negative timeout");
+        }
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.executor = executor;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * @return calls run right away in the calling thread, tried once with no time limit,
+     *          so call().join() is the same as making the call
+     */
+    public static RemoteCalls inline(String name) {
+        return new RemoteCalls(name, Integer.MAX_VALUE, 0, 1, Runnable::run);
+    }
+
+    /**
+     * @return an executor starting a virtual thread per call if this Java has them,
+     *          otherwise a pool of daemon threads
+     */
+    private static ExecutorService newExecutor(String name, int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, name + "-call-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Wait initialMillis before the first retry, doubling every retry up to maxMillis,
+     * each wait picked uniformly at random between 0 and that (so callers failing together
+     * don't all retry together).
+     */
+    public void setBackoff(long initialMillis, long maxMillis) {
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = maxMillis;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the call's result, or the last try's failure if it never succeeded
+     */
+    public <T> CompletableFuture<T> call(Callable<T> call) {
+        return call(call, null);
+    }
+
+    /**
+     * Same as call(call), every try first waiting its turn with the limiter. The wait holds
+     * no thread and no permit, and doesn't count against the try's timeout.
+     *
+     * @param limiter null for none
+     */
+    public <T> CompletableFuture<T> call(Callable<T> call, AdaptiveRateLimiter limiter) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(closedException());
+            return result;
+        }
+        attempt(call, limiter, result, 1, Metrics.current());
+        return result;
+    }
+
+    private <T> void attempt(Callable<T> call, AdaptiveRateLimiter limiter, CompletableFuture<T> result,
+                             int attempt, Metrics scope) {
+        long waitNanos;
+        Metrics previous = Metrics.enter(scope);
+        try {
+            waitNanos = (limiter == null) ? 0 : limiter.reserve();
+        } finally {
+            Metrics.enter(previous);
+        }
+        if (waitNanos > 0) {
+            // off the timer thread once waited, in case the calls run right there (inline)
+            SCHEDULER.schedule(() -> CompletableFuture.runAsync(() -> tryOnce(call, limiter, result, attempt, scope)),
+                    waitNanos, TimeUnit.NANOSECONDS);
+        }
+        else {
+            tryOnce(call, limiter, result, attempt, scope);
+        }
+    }
+
+    private <T> void tryOnce(Callable<T> call, AdaptiveRateLimiter limiter, CompletableFuture<T> result,
+                             int attempt, Metrics scope) {
+        CompletableFuture<T> outcome = new CompletableFuture<>();
+        submit(outcome, () -> {
+            if (result.isDone()) {
+                // given up on while waiting in line
+                return () -> outcome.cancel(false);
+            }
+            Running running = new Running();
+            ScheduledFuture<?> timeout = (timeoutMillis == 0) ? null : SCHEDULER.schedule(() -> {
+                if (outcome.completeExceptionally(
+                        new TimeoutException(name + " call took longer than " + timeoutMillis + " ms"))) {
+                    running.interrupt();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            Metrics previous = Metrics.enter(scope);
+            try {
+                T value = call.call();
+                return () -> outcome.complete(value);
+            } catch (Throwable e) {
+                // Errors too: a call left incomplete would never give back its permit
+                return () -> outcome.completeExceptionally(e);
+            } finally {
+                Metrics.enter(previous);
+                running.finish();
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        });
+
+        outcome.whenComplete((value, failure) -> {
+            Metrics previous = Metrics.enter(scope);
+            try {
+                if (failure == null) {
+                    result.complete(value);
+                    return;
+                }
+                if (failure instanceof TimeoutException) {
+                    Metrics.count(name + ".timeouts", 1);
+                }
+                if (attempt < maxAttempts && isRetryable(failure) && ! result.isDone()) {
+                    Metrics.count(name + ".retries", 1);
+                    SCHEDULER.schedule(() -> attempt(call, limiter, result, attempt + 1, scope),
+                            backoffMillis(attempt), TimeUnit.MILLISECONDS);
+                }
+                else {
+                    result.completeExceptionally(failure);
+                }
+            } finally {
+                Metrics.enter(previous);
+            }
+        });
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * The thread a try runs on, so a timeout can interrupt it, but only while it's still on that try.
+     */
+    private static class Running {
+        private Thread thread = Thread.currentThread();
+        private boolean interrupted;
+
+        synchronized void finish() {
+            if (interrupted) {
+                // don't leave the interrupt for whatever the thread runs next
+                Thread.interrupted();
+            }
+            thread = null;
+        }
+
+        synchronized void interrupt() {
+            if (thread != null) {
+                interrupted = true;
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * A try waiting to run, and the outcome to fail if it never will.
+     */
+    private class Waiting implements Runnable {
+        private final CompletableFuture<?> outcome;
+        private final Supplier<Runnable> task;
+
+        Waiting(CompletableFuture<?> outcome, Supplier<Runnable> task) {
+            this.outcome = outcome;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Runnable then;
+            try {
+                then = task.get();
+            } finally {
+                permits.release();
+                startWaiting();
+            }
+            then.run();
+        }
+    }
+
+    /**
+     * Run the task once fewer than maxInFlight are running, then what it returns once its permit
+     * is given back (so what's waiting on a call doesn't count as in flight). Whoever adds a task
+     * or gives back a permit starts as many waiting tasks as there are permits, so none is left
+     * waiting while a permit is free.
+     *
+     * @param outcome failed instead if the task can't be run (we're closed)
+     */
+    private void submit(CompletableFuture<?> outcome, Supplier<Runnable> task) {
+        waiting.add(new Waiting(outcome, task));
+        if (closed) {
+            // closed while adding it, close() may have already emptied the line
+            failWaiting();
+            return;
+        }
+        startWaiting();
+    }
+
+    private void startWaiting() {
+        while ( ! waiting.isEmpty() && permits.tryAcquire() ) {
+            Waiting next = waiting.poll();
+            if (next == null) {
+                permits.release();
+                continue;
+            }
+            try {
+                executor.execute(next);
+            } catch (RuntimeException e) {
+                // shut down: fail the call rather than throw at whoever happened to start it (a callback)
+                permits.release();
+                next.outcome.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failWaiting() {
+        Waiting next;
+        while ((next = waiting.poll()) != null) {
+            next.outcome.completeExceptionally(closedException());
+        }
+    }
+
+    private RejectedExecutionException closedException() {
+        return new RejectedExecutionException(name + " calls are closed");
+    }
+
+    /**
+     * @return whether the failure is one worth trying again: a timeout, or what the service
+     *          (through ServiceException, or the Google clients' exceptions) says is retryable
+     */
+    public static boolean isRetryable(Throwable failure) {
+        Throwable t = unwrap(failure);
+        if (t instanceof TimeoutException) {
+            return true;
+        }
+        if (t instanceof ServiceException) {
+            return ((ServiceException) t).isRetryable();
+        }
+        if (t instanceof BaseServiceException) {
+            return ((BaseServiceException) t).isRetryable();
+        }
+        if (t instanceof ApiException) {
+            return ((ApiException) t).isRetryable();
+        }
+        return false;
+    }
+
+    static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Wait for the future, throwing what it failed with (unchecked ones as they are,
+     * checked ones inside a CompletionException).
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the threads calls run on, interrupting calls running. Calls still waiting to run,
+     * retries and calls made from now on fail with a RejectedExecutionException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (executor instanceof ExecutorService) {
+            for (Runnable never : ((ExecutorService) executor).shutdownNow()) {
+                if (never instanceof Waiting) {
+                    ((Waiting) never).outcome.completeExceptionally(closedException());
+                }
+            }
+        }
+        failWaiting();
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * A request to a remote service (OCR, translation) that failed as a whole,
+ * with the HTTP status it failed with, eg. 429 when rate limited or 503 when unavailable.
+ */
+public class ServiceException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public ServiceException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return whether the same request may well succeed if tried again later
+     */
+    public boolean isRetryable() {
+        return code == 429 || code >= 500;
+    }
+}
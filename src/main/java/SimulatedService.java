@@ -0,0 +1,94 @@
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * How a stand-in for a remote service behaves: how long each call takes,
+ * how often it fails, and optionally how many calls a second it allows. The same seed gives the same delays and failures,
+ * call for call (for calls made in the same order).
+ */
+public class SimulatedService {
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final int errorCode;
+    private final Random random;
+    private double quotaPerSecond = 0;
+    private double quotaLeft;
+    private long quotaRefilled;
+
+    /**
+     * @param latencyMillis how long a call takes on average
+     * @param jitterMillis calls take up to this much more or less, uniformly
+     * @param errorRate fraction of calls failing, 0 to 1
+     * @param errorCode HTTP status failed calls fail with, eg. 503 or 429
+     */
+    public SimulatedService(long latencyMillis, long jitterMillis, double errorRate, int errorCode, long seed) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.errorCode = errorCode;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Calls take no time and never fail.
+     */
+    public static SimulatedService instant() {
+        return new SimulatedService(0, 0, 0, 503, 0);
+    }
+
+    /**
+     * Turn down calls beyond this many a second (up to a second's worth at once)
+     * with 429 Too Many Requests, as a service with a quota does.
+     *
+     * @param perSecond 0 for no quota
+     */
+    public void setQuota(double perSecond) {
+        synchronized (random) {
+            this.quotaPerSecond = perSecond;
+            this.quotaLeft = perSecond;
+            this.quotaRefilled = System.nanoTime();
+        }
+    }
+
+    /**
+     * Take as long as a call takes.
+     *
+     * @param what the call, for the failure's message
+     * @throws ServiceException if this call fails
+     * @throws CancellationException if the thread is interrupted while the call takes its time
+     */
+    public void call(String what) {
+        long millis;
+        boolean fails;
+        boolean overQuota = false;
+        synchronized (random) {
+            millis = latencyMillis + (jitterMillis == 0 ? 0 : (long)((random.nextDouble() * 2 - 1) * jitterMillis));
+            fails = random.nextDouble() < errorRate;
+            if (quotaPerSecond > 0) {
+                long now = System.nanoTime();
+                quotaLeft = Math.min(quotaPerSecond, quotaLeft + (now - quotaRefilled) / 1e9 * quotaPerSecond);
+                quotaRefilled = now;
+                overQuota = quotaLeft < 1;
+                if ( ! overQuota ) {
+                    quotaLeft -= 1;
+                }
+            }
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // given up on by the caller, not turned down by the service
+                throw new CancellationException(what + " interrupted");
+            }
+        }
+        if (overQuota) {
+            throw new ServiceException(429, "simulated quota exceeded by " + what);
+        }
+        if (fails) {
+            throw new ServiceException(errorCode, "simulated failure of " + what);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import java.awt.image.BufferedImage;
 
 public class SpeechBubbleDetector {
     private final BufferedImage img;
+    private final PixelReader pixels;
+    private volatile IntegralImage stats;
     private static final float COLOR_STDEV_LIM = 25.0f;
     private static final float BUBBLE_COLOR_ALLOWED_ERROR = 0.3f; // a percentage
     private static final Color TRANSLUCENT = new Color(
@@ -13,8 +15,31 @@ public class SpeechBubbleDetector {
             155
     );
 
+    /**
+     * Color statistics (averages, stdevs) are precomputed on first use, so they describe the image
+     * as it is then. Draw onto the image only after you are done detecting.
+     */
     public SpeechBubbleDetector(BufferedImage img) {
         this.img = img;
+        this.pixels = new PixelReader(img);
+    }
+
+    /**
+     * The summed-area tables take about 20 bytes a pixel, so they're only built once something asks,
+     * not while a page waits its turn to be detected.
+     */
+    private IntegralImage stats() {
+        IntegralImage stats = this.stats;
+        if (stats == null) {
+            synchronized (this) {
+                stats = this.stats;
+                if (stats == null) {
+                    stats = new IntegralImage(this.pixels);
+                    this.stats = stats;
+                }
+            }
+        }
+        return stats;
     }
 
 
@@ -28,64 +53,88 @@ public class SpeechBubbleDetector {
      * eg. when we have a large panel with just a small piece of text in the center.
      * TODO: Address this case
      *
-     * NOTE: Right now, we implement this by extending horizontally in both directions and similar for vertical
-     * expansion. We should fix this so that it is possible to extend different amounts in all directions.
+     * NOTE: Each of the four edges is pushed outward one pixel at a time, in turn, for as long
+     * as the newly added row / column is entirely bubble background. Edges stop independently,
+     * so the box can extend different amounts in every direction. This is greedy, so the area is
+     * not guaranteed to be the maximum possible.
      *
      * @param box text box
      * @return largest containing box not extending past the speech bubble
      */
     public Rectangle getLargestExpansion(Rectangle box) {
-        int xmin, ymin, xmax, ymax;
-        int x = 0;
-        Color bubbleBackgroundColor = this.calculateSpeechBubbleColor(box);
-        Rectangle containingBox;
-        Rectangle bestBox = box;
-        do {
-            xmin = box.UL.x - x;
-            xmax = box.BR.x + x;
-            int y = 0;
-            do {
-                ymin = box.UL.y - y;
-                ymax = box.BR.y + y;
-                containingBox = new Rectangle(xmin, ymin, xmax, ymax);
-                if (containingBox.area() > bestBox.area()) {
-                    bestBox = containingBox;
-                }
-                y ++;
-            } while (inSpeechBubble(
-                    containingBox,
-                    bubbleBackgroundColor)
-                    );
-            x ++;
-        } while (inSpeechBubble(
-                new Rectangle(xmin, box.ymin(), xmax, box.ymax()),
-                bubbleBackgroundColor
-        ));
-        return bestBox;
+        long started = Metrics.start();
+        BackgroundMask mask = new BackgroundMask(
+                this.pixels,
+                this.speechBubbleRGB(box),
+                BUBBLE_COLOR_ALLOWED_ERROR
+        );
+        int xmin = box.xmin();
+        int ymin = box.ymin();
+        int xmax = box.xmax();
+        int ymax = box.ymax();
+
+        // once an edge is blocked it stays blocked: the other edges growing only makes
+        // the next row / column it would add longer, never clears the pixel that blocked it
+        boolean left = true, right = true, up = true, down = true;
+        while (left || right || up || down) {
+            if (left && (left = mask.columnIsBackground(xmin - 1, ymin, ymax))) {
+                xmin --;
+            }
+            if (right && (right = mask.columnIsBackground(xmax + 1, ymin, ymax))) {
+                xmax ++;
+            }
+            if (up && (up = mask.rowIsBackground(ymin - 1, xmin, xmax))) {
+                ymin --;
+            }
+            if (down && (down = mask.rowIsBackground(ymax + 1, xmin, xmax))) {
+                ymax ++;
+            }
+        }
+        Metrics.stop("detect.getLargestExpansion", started);
+        return new Rectangle(xmin, ymin, xmax, ymax);
+    }
+
+    /**
+     * Same goal as getLargestExpansion, but exact: flood fill the speech bubble starting from
+     * the text box, then take the largest rectangle inside that mask which contains the text box.
+     * Cost is proportional to the area of the bubble.
+     *
+     * @param box text box
+     * @return largest containing box not extending past the speech bubble
+     */
+    public Rectangle getMaximalRectangle(Rectangle box) {
+        Rectangle seed = this.clampRect(box);
+        BackgroundMask background = new BackgroundMask(
+                this.pixels,
+                this.speechBubbleRGB(seed),
+                BUBBLE_COLOR_ALLOWED_ERROR
+        );
+        BubbleMask bubble = BubbleMask.floodFill(background, seed);
+        return bubble.largestRectangleContaining(seed);
     }
 
     public boolean inSpeechBubble(Rectangle box, Color bubbleBackground) {
+        return inSpeechBubble(box, bubbleBackground.getRGB() & 0xFFFFFF);
+    }
+
+    private boolean inSpeechBubble(Rectangle box, int bubbleBackground) {
         if (box.xmin() < 0 || box.ymin() < 0 || box.xmax() >= img.getWidth() || box.ymax() >= img.getHeight()) {
             return false;
         }
         for (int x = box.xmin(); x <= box.xmax(); x++) {
-            Color top = new Color(img.getRGB(x, box.ymin()));
-            if ( ! validColor(top, bubbleBackground) ) {
+            if ( ! validColor(pixels.rgb(x, box.ymin()), bubbleBackground) ) {
                 return false;
             }
-            Color bot = new Color(img.getRGB(x, box.ymax()));
-            if ( ! validColor(bot, bubbleBackground) ) {
+            if ( ! validColor(pixels.rgb(x, box.ymax()), bubbleBackground) ) {
                 return false;
             }
         }
 
         for (int y = box.ymin(); y <= box.ymax(); y++) {
-            Color left = new Color(img.getRGB(box.xmin(), y));
-            if ( ! validColor(left, bubbleBackground) ) {
+            if ( ! validColor(pixels.rgb(box.xmin(), y), bubbleBackground) ) {
                 return false;
             }
-            Color right = new Color(img.getRGB(box.xmax(), y));
-            if ( ! validColor(right, bubbleBackground) ) {
+            if ( ! validColor(pixels.rgb(box.xmax(), y), bubbleBackground) ) {
                 return false;
             }
         }
@@ -94,69 +143,51 @@ public class SpeechBubbleDetector {
 
     /**
      * Test if the color is within a certain margin of error of the speech bubble's background color
-     * @param c color
-     * @param bubbleBackground speech bubble background color
+     * @param rgb color, packed as 0xRRGGBB
+     * @param bubbleBackground speech bubble background color, packed as 0xRRGGBB
      * @return as described
      */
-    private boolean validColor(Color c, Color bubbleBackground) {
-        return this.colorDiff(c, bubbleBackground) < BUBBLE_COLOR_ALLOWED_ERROR;
+    private boolean validColor(int rgb, int bubbleBackground) {
+        return SpeechBubbleDetector.colorDiff(rgb, bubbleBackground) < BUBBLE_COLOR_ALLOWED_ERROR;
     }
 
     public Color calculateSpeechBubbleColor(Rectangle box) {
+        return new Color(speechBubbleRGB(box));
+    }
+
+    private int speechBubbleRGB(Rectangle box) {
         box = this.clampRect(box);
         int xmin = box.UL.x;
         int ymin = box.UL.y;
         int xmax = box.BR.x;
         int ymax = box.BR.y;
 
-        Color top = calculateAverageColor(new Rectangle(xmin, ymin, xmax, ymin));
-        Color bot = calculateAverageColor(new Rectangle(xmin, ymax, xmax, ymax));
-        Color left = calculateAverageColor(new Rectangle(xmin, ymin, xmin, ymax));
-        Color right = calculateAverageColor(new Rectangle(xmax, ymin, xmax, ymax));
+        int top = averageRGB(xmin, ymin, xmax, ymin);
+        int bot = averageRGB(xmin, ymax, xmax, ymax);
+        int left = averageRGB(xmin, ymin, xmin, ymax);
+        int right = averageRGB(xmax, ymin, xmax, ymax);
 
 
         int R = 0, G = 0, B = 0;
-        for (Color c : new Color[]{top, bot, left, right}) {
-            if (c.getRed() > R) R = c.getRed();
-            if (c.getGreen() > G) G = c.getGreen();
-            if (c.getBlue() > B) B = c.getBlue();
+        for (int c : new int[]{top, bot, left, right}) {
+            if (PixelReader.red(c) > R) R = PixelReader.red(c);
+            if (PixelReader.green(c) > G) G = PixelReader.green(c);
+            if (PixelReader.blue(c) > B) B = PixelReader.blue(c);
         }
 
-        return new Color(R, G, B);
+        return toRGB(R, G, B);
     }
 
     public Color calculateAverageColor(Rectangle box) {
-        int R=0;
-        int G=0;
-        int B=0;
-        int n=0;
-        for (int x = box.xmin(); x <= box.xmax(); x++) {
-            for (int y = box.ymin(); y <= box.ymax(); y++) {
-                Color pixel = new Color(img.getRGB(x,y));
-                R += pixel.getRed();
-                G += pixel.getGreen();
-                B += pixel.getBlue();
-                n ++;
-            }
-        }
-        return new Color(R/n, G/n, B/n);
+        return new Color(averageRGB(box.xmin(), box.ymin(), box.xmax(), box.ymax()));
+    }
+
+    private int averageRGB(int xmin, int ymin, int xmax, int ymax) {
+        return stats().averageRGB(xmin, ymin, xmax, ymax);
     }
 
     private float calculateColorStdev(Rectangle box) {
-        Color avgColor = this.calculateAverageColor(box);
-        float sum = 0;
-        float n = 0;
-        for (int x = box.xmin(); x <= box.xmax(); x++) {
-            for (int y = box.ymin(); y <= box.ymax(); y++) {
-                Color pixel = new Color(img.getRGB(x,y));
-                sum += Math.pow(pixel.getRed() - avgColor.getRed(), 2);
-                sum += Math.pow(pixel.getGreen() - avgColor.getGreen(), 2);
-                sum += Math.pow(pixel.getBlue() - avgColor.getBlue(), 2);
-                n += 3;
-            }
-        }
-        float variance = sum / n;
-        return (float)Math.sqrt(variance);
+        return stats().colorStdev(box.xmin(), box.ymin(), box.xmax(), box.ymax());
     }
 
     private Color calculateAverageColor(Ellipse2D bubble) {
@@ -170,10 +201,10 @@ public class SpeechBubbleDetector {
                     continue;
                 }
 
-                Color pixel = new Color(img.getRGB(x,y));
-                R += pixel.getRed();
-                G += pixel.getGreen();
-                B += pixel.getBlue();
+                int pixel = pixels.rgb(x, y);
+                R += PixelReader.red(pixel);
+                G += PixelReader.green(pixel);
+                B += PixelReader.blue(pixel);
                 n ++;
             }
         }
@@ -202,14 +233,18 @@ public class SpeechBubbleDetector {
         return newBox;
     }
 
-    private float colorDiff(Color cA, Color cB) {
-        int dR = Math.abs(cA.getRed() - cB.getRed());
-        int dG = Math.abs(cA.getGreen() - cB.getGreen());
-        int dB = Math.abs(cA.getBlue() - cB.getBlue());
+    static float colorDiff(int cA, int cB) {
+        int dR = Math.abs(PixelReader.red(cA) - PixelReader.red(cB));
+        int dG = Math.abs(PixelReader.green(cA) - PixelReader.green(cB));
+        int dB = Math.abs(PixelReader.blue(cA) - PixelReader.blue(cB));
 
         return (dR + dG + dB) / (3 * 256f);
     }
 
+    private static int toRGB(int R, int G, int B) {
+        return (R << 16) | (G << 8) | B;
+    }
+
     private Rectangle clampRect(Rectangle box) {
         int xmin = Math.max(0, box.xmin());
         int xmax = Math.min(img.getWidth() - 1, box.xmax());
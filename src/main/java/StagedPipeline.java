@@ -0,0 +1,334 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Items flow through a fixed sequence of stages, each run by its own pool of threads.
+ * Consecutive stages are connected by bounded queues, so a slow stage holds back the ones
+ * before it instead of letting work pile up in memory, while every stage keeps busy.
+ *
+ * A stage that mostly waits (see AsyncStage) can instead keep many items in flight from one thread.
+ *
+ * An item that a stage fails on is reported and dropped; the rest carry on.
+ *
+ * @param <T> work item, handed from stage to stage
+ */
+public class StagedPipeline<T> {
+
+    public interface Stage<T> {
+        /**
+         * @return the item to pass on to the next stage, never null
+         */
+        T process(T item) throws Exception;
+    }
+
+    /**
+     * A stage that mostly waits, eg. on a remote service: it starts on an item and returns,
+     * and the item moves on whenever it's done.
+     */
+    public interface AsyncStage<T> {
+        /**
+         * @return the item to pass on to the next stage once done, never null
+         */
+        CompletableFuture<T> process(T item) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private final int queueCapacity;
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> threads = new ArrayList<>();
+    private final List<Stage<T>> stages = new ArrayList<>();
+    private final List<AsyncStage<T>> asyncStages = new ArrayList<>();
+    private final List<AtomicLong> busyNanos = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param queueCapacity most items waiting in front of any one stage
+     */
+    public StagedPipeline(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public StagedPipeline<T> addStage(String name, int threads, Stage<T> stage) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("stage " + name + " needs at least one thread");
+        }
+        this.names.add(name);
+        this.threads.add(threads);
+        this.stages.add(stage);
+        this.asyncStages.add(null);
+        this.busyNanos.add(new AtomicLong());
+        return this;
+    }
+
+    /**
+     * A stage run by a single thread, which starts items without waiting for them to finish,
+     * up to inFlight at once; the threads finishing them pass them on.
+     */
+    public StagedPipeline<T> addAsyncStage(String name, int inFlight, AsyncStage<T> stage) {
+        if (inFlight < 1) {
+            throw new IllegalArgumentException("stage " + name + " needs at least one item in flight");
+        }
+        this.names.add(name);
+        this.threads.add(inFlight);
+        this.stages.add(null);
+        this.asyncStages.add(stage);
+        this.busyNanos.add(new AtomicLong());
+        return this;
+    }
+
+    /**
+     * Push every item through all the stages, waiting until they are done.
+     *
+     * @return items that made it through the last stage, in the order they got there
+     */
+    public List<T> run(Iterable<T> items) throws InterruptedException {
+        int n = stages.size();
+        if (n == 0) {
+            List<T> all = new ArrayList<>();
+            for (T item : items) {
+                all.add(item);
+            }
+            return all;
+        }
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        List<T> done = Collections.synchronizedList(new ArrayList<T>());
+
+        List<Thread> workers = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            BlockingQueue<Object> out = (s + 1 < n) ? queues.get(s + 1) : null;
+            if (asyncStages.get(s) != null) {
+                AsyncWorker async = new AsyncWorker(s, queues.get(s), out, done);
+                Thread worker = new Thread(async, names.get(s));
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+                if (out != null) {
+                    Thread passer = new Thread(async::passOn, names.get(s) + "-out");
+                    passer.setDaemon(true);
+                    workers.add(passer);
+                    passer.start();
+                }
+                continue;
+            }
+            AtomicInteger running = new AtomicInteger(threads.get(s));
+            for (int t = 0; t < threads.get(s); t++) {
+                Thread worker = new Thread(
+                        new Worker(s, queues.get(s), out, running, done),
+                        names.get(s) + "-" + t
+                );
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        try {
+            for (T item : items) {
+                queues.get(0).put(item);
+            }
+            queues.get(0).put(END);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            throw e;
+        }
+        return done;
+    }
+
+    private class Worker implements Runnable {
+        private final int stage;
+        private final BlockingQueue<Object> in, out;
+        private final AtomicInteger running;
+        private final List<T> done;
+
+        Worker(int stage, BlockingQueue<Object> in, BlockingQueue<Object> out,
+               AtomicInteger running, List<T> done) {
+            this.stage = stage;
+            this.in = in;
+            this.out = out;
+            this.running = running;
+            this.done = done;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    Object next = in.take();
+                    if (next == END) {
+                        // leave it for the other threads of this stage
+                        in.put(END);
+                        return;
+                    }
+
+                    T result;
+                    long start = System.nanoTime();
+                    try {
+                        result = stages.get(stage).process((T)next);
+                        if (result == null) {
+                            throw new IllegalStateException("stage returned null");
+                        }
+                    } catch (Throwable e) {
+                        System.err.printf("%s failed on %s: %s\n", names.get(stage), next, e);
+                        failures.incrementAndGet();
+                        continue;
+                    } finally {
+                        busyNanos.get(stage).addAndGet(System.nanoTime() - start);
+                    }
+
+                    if (out != null) {
+                        out.put(result);
+                    }
+                    else {
+                        done.add(result);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // the last one out passes the end on, however it got out, so the stages after never wait forever
+                if (running.decrementAndGet() == 0 && out != null && ! Thread.currentThread().isInterrupted()) {
+                    try {
+                        out.put(END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts items from its own thread. Items done are handed to its passOn thread to wait for room
+     * in the next stage's queue, so the threads finishing them (a remote service's callbacks) never wait.
+     */
+    private class AsyncWorker implements Runnable {
+        private final int stage;
+        private final BlockingQueue<Object> in, out;
+        private final List<T> done;
+        private final Semaphore inFlight;
+        // items done, and then the end, for passOn; never more than the items in flight
+        private final BlockingQueue<Object> finished = new LinkedBlockingQueue<>();
+
+        AsyncWorker(int stage, BlockingQueue<Object> in, BlockingQueue<Object> out, List<T> done) {
+            this.stage = stage;
+            this.in = in;
+            this.out = out;
+            this.done = done;
+            this.inFlight = new Semaphore(threads.get(stage));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    inFlight.acquire();
+                    Object next = in.take();
+                    if (next == END) {
+                        // everything started is passed on before the end is
+                        inFlight.acquire(threads.get(stage) - 1);
+                        if (out != null) {
+                            finished.add(END);
+                        }
+                        return;
+                    }
+
+                    long start = System.nanoTime();
+                    CompletableFuture<T> result;
+                    try {
+                        result = asyncStages.get(stage).process((T)next);
+                        if (result == null) {
+                            throw new IllegalStateException("stage returned null");
+                        }
+                    } catch (Throwable e) {
+                        failed(next, e, start);
+                        continue;
+                    }
+                    result.whenComplete((item, e) -> {
+                        if (e != null) {
+                            failed(next, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e, start);
+                            return;
+                        }
+                        if (item == null) {
+                            failed(next, new IllegalStateException("stage returned null"), start);
+                            return;
+                        }
+                        busyNanos.get(stage).addAndGet(System.nanoTime() - start);
+                        if (out != null) {
+                            // still in flight until passOn has it in the next queue
+                            finished.add(item);
+                        }
+                        else {
+                            done.add(item);
+                            inFlight.release();
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Move items done into the next stage's queue, waiting for room there, until the end.
+         */
+        void passOn() {
+            try {
+                while (true) {
+                    Object item = finished.take();
+                    out.put(item);
+                    if (item == END) {
+                        return;
+                    }
+                    inFlight.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void failed(Object item, Throwable e, long start) {
+            System.err.printf("%s failed on %s: %s\n", names.get(stage), item, e);
+            failures.incrementAndGet();
+            busyNanos.get(stage).addAndGet(System.nanoTime() - start);
+            inFlight.release();
+        }
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return seconds spent inside each stage, summed over its threads (over the items in flight,
+     *          for an async stage), by stage name
+     */
+    public Map<String, Double> getBusySeconds() {
+        Map<String, Double> seconds = new LinkedHashMap<>();
+        for (int s = 0; s < stages.size(); s++) {
+            seconds.put(names.get(s), busyNanos.get(s).get() / 1e9);
+        }
+        return seconds;
+    }
+}
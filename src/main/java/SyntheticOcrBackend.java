@@ -0,0 +1,109 @@
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.Block;
+import com.google.cloud.vision.v1.Page;
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.TextAnnotation;
+import com.google.cloud.vision.v1.Word;
+import com.google.protobuf.ByteString;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stand-in for the Vision API that makes up its answers: a few speech bubbles' worth of
+ * vertical Japanese text columns per image, laid out inside the image.
+ *
+ * The answer for an image depends only on its bytes, so runs are repeatable; how long requests
+ * take and how often they fail is up to the SimulatedService.
+ */
+public class SyntheticOcrBackend implements OcrBackend {
+    private static final String KANA = "あいうえおかきくけこさしすせそたちつてとなにぬねのはひふへほまみむめもやゆよらりるれろわをんー";
+    private static final int DEFAULT_WIDTH = 1000, DEFAULT_HEIGHT = 1500;
+
+    private final SimulatedService service;
+
+    public SyntheticOcrBackend(SimulatedService service) {
+        this.service = service;
+    }
+
+    @Override
+    public BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) {
+        service.call("batchAnnotateImages");
+        BatchAnnotateImagesResponse.Builder response = BatchAnnotateImagesResponse.newBuilder();
+        for (AnnotateImageRequest request : requests) {
+            response.addResponses(annotate(request.getImage().getContent()));
+        }
+        return response.build();
+    }
+
+    /**
+     * 1 - 6 bubbles, each 1 - 3 columns side by side (right to left), each column 1 - 3 words.
+     */
+    static AnnotateImageResponse annotate(ByteString image) {
+        int[] size = imageSize(image);
+        int width = size[0], height = size[1];
+        Random random = new Random(OcrCache.digest(image, "").hashCode());
+
+        Block.Builder block = Block.newBuilder();
+        StringBuilder text = new StringBuilder();
+        for (int bubbles = 1 + random.nextInt(6); bubbles > 0; bubbles--) {
+            int columns = 1 + random.nextInt(3);
+            int columnWidth = Math.max(1, Math.min(20 + random.nextInt(10), width / (columns + 1)));
+            int columnHeight = Math.max(1, Math.min(60 + random.nextInt(140), height - 1));
+            int x = random.nextInt(Math.max(1, width - columns * columnWidth));
+            int y = random.nextInt(Math.max(1, height - columnHeight));
+            for (int c = columns - 1; c >= 0; c--) {
+                int left = x + c * columnWidth;
+                Rectangle box = new Rectangle(left, y, left + columnWidth - 2, y + columnHeight - 1);
+                Paragraph.Builder paragraph = Paragraph.newBuilder().setBoundingBox(box.toBoundingPoly());
+                for (int w = 1 + random.nextInt(3); w > 0; w--) {
+                    Word.Builder word = Word.newBuilder().setBoundingBox(box.toBoundingPoly());
+                    for (int s = 2 + random.nextInt(5); s > 0; s--) {
+                        String symbol = String.valueOf(KANA.charAt(random.nextInt(KANA.length())));
+                        word.addSymbols(Symbol.newBuilder().setText(symbol));
+                        text.append(symbol);
+                    }
+                    paragraph.addWords(word);
+                }
+                block.addParagraphs(paragraph);
+                text.append('\n');
+            }
+        }
+
+        Page page = Page.newBuilder().setWidth(width).setHeight(height).addBlocks(block).build();
+        return AnnotateImageResponse.newBuilder()
+                .setFullTextAnnotation(TextAnnotation.newBuilder().addPages(page).setText(text.toString()))
+                .build();
+    }
+
+    /**
+     * @return width and height from the image's header, without decoding it;
+     *          a typical page's if it can't be read
+     */
+    private static int[] imageSize(ByteString image) {
+        try (InputStream in = image.newInput(); ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers != null && readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(stream);
+                    return new int[] {reader.getWidth(0), reader.getHeight(0)};
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException e) {
+            // not an image we can read, make one up
+        }
+        return new int[] {DEFAULT_WIDTH, DEFAULT_HEIGHT};
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stand-in for the Translation API that makes up its answers: English-looking text
+ * about as long as a real translation of the Japanese would be, escaped the way the API escapes.
+ *
+ * A text's translation depends only on the text and the languages, so runs are repeatable;
+ * how long requests take and how often they fail is up to the SimulatedService.
+ *
+ * To replay real translations instead, run with the TranslationCache a live run filled:
+ * only texts it doesn't have get here.
+ */
+public class SyntheticTranslationBackend implements TranslationBackend {
+    private static final String[] WORDS = (
+            "I you we it the a an is are was what why how this that here there now not no yes " +
+            "don&#39;t can&#39;t it&#39;s wait look come go see know think want really just " +
+            "candy shop sensei school today tomorrow everyone something nothing again already"
+    ).split(" ");
+
+    private final SimulatedService service;
+
+    public SyntheticTranslationBackend(SimulatedService service) {
+        this.service = service;
+    }
+
+    @Override
+    public List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage) {
+        service.call("translate");
+        List<String> translations = new ArrayList<>();
+        for (String text : texts) {
+            translations.add(translate(text, sourceLanguage, targetLanguage));
+        }
+        return translations;
+    }
+
+    /**
+     * About one English word for every two characters of the text, ending like it does.
+     */
+    static String translate(String text, String sourceLanguage, String targetLanguage) {
+        Random random = new Random((sourceLanguage + ">" + targetLanguage + "\t" + text).hashCode());
+        String trimmed = text.trim();
+        StringBuilder translation = new StringBuilder();
+        for (int w = Math.max(1, trimmed.length() / 2); w > 0; w--) {
+            if (translation.length() > 0) {
+                translation.append(' ');
+            }
+            translation.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        char last = trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1);
+        if (last == '？' || last == '?') {
+            translation.append('?');
+        }
+        else if (last == '！' || last == '!') {
+            translation.append('!');
+        }
+        return translation.toString();
+    }
+}
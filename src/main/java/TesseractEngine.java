@@ -0,0 +1,212 @@
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.Word;
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.ITessAPI.TessPageIterator;
+import net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel;
+import net.sourceforge.tess4j.ITessAPI.TessResultIterator;
+import net.sourceforge.tess4j.TessAPI1;
+import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.util.ImageIOHelper;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One native Tesseract instance, initialized once for a language and then used
+ * for any number of images.
+ *
+ * tess4j's Tesseract class initializes a fresh native instance inside every doOCR call,
+ * which for jpn / jpn_vert means loading the traineddata each time; this keeps it loaded.
+ *
+ * Not thread safe: use it from one thread at a time (see TesseractPool).
+ */
+public class TesseractEngine implements AutoCloseable {
+    private final String language;
+    private TessBaseAPI handle;
+
+    /**
+     * @param datapath directory holding tessdata
+     * @param language Tesseract language, eg. "jpn"
+     */
+    public TesseractEngine(String datapath, String language) throws TesseractException {
+        this(language, init(datapath, language));
+    }
+
+    /**
+     * @param handle initialized native instance, taken over by the engine
+     */
+    TesseractEngine(String language, TessBaseAPI handle) {
+        this.language = language;
+        this.handle = handle;
+    }
+
+    private static TessBaseAPI init(String datapath, String language) throws TesseractException {
+        TessBaseAPI handle = TessAPI1.TessBaseAPICreate();
+        if (TessAPI1.TessBaseAPIInit3(handle, datapath, language) != 0) {
+            TessAPI1.TessBaseAPIDelete(handle);
+            throw new TesseractException("failed to initialize Tesseract for " + language + " from " + datapath);
+        }
+        return handle;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Make img the image the next recognition works on.
+     */
+    void setImage(BufferedImage img) {
+        int bpp = img.getColorModel().getPixelSize();
+        int bytesPerLine = (int)Math.ceil(img.getWidth() * bpp / 8.0);
+        TessAPI1.TessBaseAPISetImage(
+                handle,
+                ImageIOHelper.convertImageData(img),
+                img.getWidth(),
+                img.getHeight(),
+                bpp / 8,
+                bytesPerLine
+        );
+    }
+
+    TessBaseAPI getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return all the text in the image, empty if Tesseract found none
+     */
+    public String recognize(BufferedImage img) {
+        setImage(img);
+        Pointer text = TessAPI1.TessBaseAPIGetUTF8Text(handle);
+        try {
+            return text == null ? "" : text.getString(0, "UTF-8");
+        } finally {
+            if (text != null) {
+                TessAPI1.TessDeleteText(text);
+            }
+            TessAPI1.TessBaseAPIClear(handle);
+        }
+    }
+
+    /**
+     * Recognize the text in a region of the image.
+     *
+     * @param region part of the image to read (inclusive bounds), within the image
+     * @return paragraphs, with boxes for each paragraph and word in image coordinates
+     */
+    public List<Paragraph> recognizeParagraphs(BufferedImage img, Rectangle region) throws TesseractException {
+        return recognizeParagraphs(img, Collections.singletonList(region)).get(0);
+    }
+
+    /**
+     * Recognize the text in many regions of the same image. The image is handed to
+     * Tesseract only once.
+     *
+     * @param regions parts of the image to read (inclusive bounds), within the image
+     * @return paragraphs of each region, in image coordinates
+     */
+    public List<List<Paragraph>> recognizeParagraphs(BufferedImage img, List<Rectangle> regions)
+            throws TesseractException {
+        List<List<Paragraph>> paragraphs = new ArrayList<>();
+        if (regions.isEmpty()) {
+            return paragraphs;
+        }
+        setImage(img);
+        try {
+            for (Rectangle region : regions) {
+                paragraphs.add( recognizeRegion(region) );
+            }
+        } finally {
+            TessAPI1.TessBaseAPIClear(handle);
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Walk Tesseract's result iterator for a region of the current image word by word,
+     * starting a new paragraph wherever Tesseract does.
+     */
+    private List<Paragraph> recognizeRegion(Rectangle region) throws TesseractException {
+        TessAPI1.TessBaseAPISetRectangle(handle, region.xmin(), region.ymin(), region.width() + 1, region.height() + 1);
+        if (TessAPI1.TessBaseAPIRecognize(handle, null) != 0) {
+            throw new TesseractException("Tesseract failed to recognize the image");
+        }
+
+        List<Paragraph> paragraphs = new ArrayList<>();
+        TessResultIterator it = TessAPI1.TessBaseAPIGetIterator(handle);
+        if (it == null) {
+            return paragraphs;
+        }
+        TessPageIterator page = TessAPI1.TessResultIteratorGetPageIterator(it);
+        Paragraph.Builder paragraph = null;
+        try {
+            do {
+                if (paragraph == null ||
+                        TessAPI1.TessPageIteratorIsAtBeginningOf(page, TessPageIteratorLevel.RIL_PARA) == ITessAPI.TRUE) {
+                    if (paragraph != null && paragraph.getWordsCount() > 0) {
+                        paragraphs.add(paragraph.build());
+                    }
+                    paragraph = Paragraph.newBuilder()
+                            .setBoundingBox(boundingBox(page, TessPageIteratorLevel.RIL_PARA).toBoundingPoly());
+                }
+
+                Pointer text = TessAPI1.TessResultIteratorGetUTF8Text(it, TessPageIteratorLevel.RIL_WORD);
+                if (text == null) {
+                    continue;
+                }
+                String wordText;
+                try {
+                    wordText = text.getString(0, "UTF-8").trim();
+                } finally {
+                    TessAPI1.TessDeleteText(text);
+                }
+                if (wordText.isEmpty()) {
+                    continue;
+                }
+
+                Word.Builder word = Word.newBuilder()
+                        .setBoundingBox(boundingBox(page, TessPageIteratorLevel.RIL_WORD).toBoundingPoly());
+                for (int i = 0; i < wordText.length(); i = wordText.offsetByCodePoints(i, 1)) {
+                    String symbol = wordText.substring(i, wordText.offsetByCodePoints(i, 1));
+                    word.addSymbols(Symbol.newBuilder().setText(symbol));
+                }
+                paragraph.addWords(word);
+            } while (TessAPI1.TessResultIteratorNext(it, TessPageIteratorLevel.RIL_WORD) == ITessAPI.TRUE);
+        } finally {
+            TessAPI1.TessResultIteratorDelete(it);
+        }
+        if (paragraph != null && paragraph.getWordsCount() > 0) {
+            paragraphs.add(paragraph.build());
+        }
+        return paragraphs;
+    }
+
+    /**
+     * @return box of the element the iterator is at, at the given level.
+     *          Tesseract's right and bottom are exclusive, ours are not.
+     */
+    private static Rectangle boundingBox(TessPageIterator page, int level) {
+        IntBuffer left = IntBuffer.allocate(1);
+        IntBuffer top = IntBuffer.allocate(1);
+        IntBuffer right = IntBuffer.allocate(1);
+        IntBuffer bottom = IntBuffer.allocate(1);
+        TessAPI1.TessPageIteratorBoundingBox(page, level, left, top, right, bottom);
+        return new Rectangle(left.get(0), top.get(0), right.get(0) - 1, bottom.get(0) - 1);
+    }
+
+    @Override
+    public void close() {
+        if (handle != null) {
+            TessAPI1.TessBaseAPIEnd(handle);
+            TessAPI1.TessBaseAPIDelete(handle);
+            handle = null;
+        }
+    }
+}
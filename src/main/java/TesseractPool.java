@@ -0,0 +1,155 @@
+import net.sourceforge.tess4j.TesseractException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initialized Tesseract engines, handed out to one thread at a time.
+ *
+ * Engines are created on demand, at most size of them per language, and kept for reuse,
+ * so each pays its initialization once. A thread asking for a language whose engines
+ * are all busy waits for one to be released.
+ */
+public class TesseractPool implements AutoCloseable {
+    private static TesseractPool shared;
+
+    private final String datapath;
+    private final int size;
+    private final Map<String, BlockingQueue<TesseractEngine>> idle = new HashMap<>();
+    private final Map<String, Integer> created = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * @param datapath directory holding tessdata
+     * @param size most engines per language
+     */
+    public TesseractPool(String datapath, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("pool size must be at least 1");
+        }
+        this.datapath = datapath;
+        this.size = size;
+    }
+
+    /**
+     * Pool used by TextRecognizerTesseract unless given another, made by fromEnvironment().
+     */
+    public static synchronized TesseractPool getShared() {
+        if (shared == null) {
+            shared = fromEnvironment();
+        }
+        return shared;
+    }
+
+    /**
+     * @return a new pool sized by the tesseract.poolSize system property, one engine per core
+     *          by default, reading tessdata from TESSDATA_PREFIX, or the working directory, like tess4j does
+     */
+    public static TesseractPool fromEnvironment() {
+        String datapath = System.getenv("TESSDATA_PREFIX");
+        int size = Integer.getInteger("tesseract.poolSize", Runtime.getRuntime().availableProcessors());
+        return new TesseractPool(datapath == null ? "./" : datapath, size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Take an engine for the language, creating one if there's room, waiting for one otherwise.
+     * Give it back with release() when done.
+     *
+     * @throws IllegalStateException if the pool is closed
+     */
+    public TesseractEngine borrow(String language) throws TesseractException, InterruptedException {
+        while (true) {
+            BlockingQueue<TesseractEngine> engines;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Tesseract pool is closed");
+                }
+                engines = idle.get(language);
+                if (engines == null) {
+                    engines = new LinkedBlockingQueue<>();
+                    idle.put(language, engines);
+                    created.put(language, 0);
+                }
+                TesseractEngine engine = engines.poll();
+                if (engine != null) {
+                    return engine;
+                }
+                if (created.get(language) < size) {
+                    // counted before it exists, so no other thread goes over size meanwhile
+                    created.put(language, created.get(language) + 1);
+                    break;
+                }
+            }
+            // check back now and then, in case an engine failed to initialize and freed up room
+            TesseractEngine engine = engines.poll(100, TimeUnit.MILLISECONDS);
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return create(language);
+    }
+
+    private TesseractEngine create(String language) throws TesseractException {
+        TesseractEngine engine;
+        try {
+            engine = newEngine(language);
+        } catch (TesseractException | RuntimeException e) {
+            synchronized (this) {
+                if ( ! closed ) {
+                    created.put(language, created.get(language) - 1);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (closed) {
+                engine.close();
+                throw new IllegalStateException("Tesseract pool is closed");
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * @return a new engine for the language
+     */
+    TesseractEngine newEngine(String language) throws TesseractException {
+        return new TesseractEngine(datapath, language);
+    }
+
+    /**
+     * Give back an engine from borrow(). One given back after the pool is closed is freed.
+     */
+    public void release(TesseractEngine engine) {
+        synchronized (this) {
+            if ( ! closed ) {
+                idle.get(engine.getLanguage()).add(engine);
+                return;
+            }
+        }
+        engine.close();
+    }
+
+    /**
+     * Free every engine. Engines still borrowed are freed when they're released,
+     * and borrowing from then on fails.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (BlockingQueue<TesseractEngine> engines : idle.values()) {
+            for (TesseractEngine engine : engines) {
+                engine.close();
+            }
+        }
+        idle.clear();
+        created.clear();
+    }
+}
@@ -0,0 +1,336 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the font size text should be drawn at in a box, and breaks it into lines,
+ * exactly the way TextProcessor does (same probes, same sizes, same line breaks),
+ * without measuring strings over and over.
+ *
+ * The text is split into words once. For each font size probed, every character's
+ * advance is looked up once (FontMetrics.getWidths() covers Latin-1 in a single call),
+ * word widths are summed from those into an int array, and candidate lines are measured
+ * by adding word and space widths instead of building and measuring the line strings.
+ *
+ * That sum equals FontMetrics.stringWidth only when glyph advances are whole pixels,
+ * which they are without fractional metrics, and for text Java lays out char by char.
+ * forText returns null when that can't be guaranteed; measure strings instead then.
+ *
+ * With LineBreaking.BALANCED, lines are chosen by dynamic programming rather than greedily
+ * (see balancedLines). That mode has no older result to reproduce, so it works for any text:
+ * where summing characters isn't exact, each word is measured whole instead.
+ */
+public class TextFitter {
+    private final Graphics2D g2;
+    private final FontRegistry fonts;
+    private final String[] words;
+    private final boolean leadingSpace;
+    private final LineBreaking breaking;
+    private final boolean additive;
+    private final Map<Font, Measure> measures = new HashMap<>();
+
+    // balancedLines' tables, reused for every size probed
+    private final long[] cost;
+    private final int[] lineEnd;
+
+    /**
+     * Widths of everything we need, at one font size.
+     */
+    private static class Measure {
+        int[] wordWidths;
+        int space;
+        int lineHeight;
+    }
+
+    private TextFitter(Graphics2D g2, FontRegistry fonts, String text, LineBreaking breaking, boolean additive) {
+        this.g2 = g2;
+        this.fonts = fonts;
+        this.words = text.trim().replaceAll(" +", " ").split("\\s+");
+        this.leadingSpace = text.split("\\s+")[0].isEmpty();
+        this.breaking = breaking;
+        this.additive = additive;
+        if (breaking == LineBreaking.BALANCED) {
+            this.cost = new long[words.length + 1];
+            this.lineEnd = new int[words.length + 1];
+        }
+        else {
+            this.cost = null;
+            this.lineEnd = null;
+        }
+    }
+
+    /**
+     * @return a fitter breaking lines greedily, or null if adding up widths might not give exactly
+     *          what FontMetrics.stringWidth would
+     */
+    public static TextFitter forText(Graphics2D g2, String text) {
+        return forText(g2, text, LineBreaking.GREEDY);
+    }
+
+    /**
+     * @return a fitter for the text, or null if there is no text;
+     *          for GREEDY also null if adding up widths might not be exact
+     */
+    public static TextFitter forText(Graphics2D g2, String text, LineBreaking breaking) {
+        if (text.trim().isEmpty()) {
+            return null;
+        }
+        boolean additive = isAdditive(g2, text);
+        if ( ! additive && breaking == LineBreaking.GREEDY ) {
+            return null;
+        }
+        return new TextFitter(g2, FontRegistry.getShared(), text, breaking, additive);
+    }
+
+    private static boolean isAdditive(Graphics2D g2, String text) {
+        if (g2.getFontRenderContext().usesFractionalMetrics() || g2.getFont().isTransformed()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+            if ( ! whitespace && ! isSimple(c) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether Java measures c on its own, rather than laying out the text around it:
+     *          Latin, Greek, Cyrillic and general punctuation. Not combining marks, right to left
+     *          or Indic scripts, joiners or surrogates. Not control characters either, trim() eats those.
+     */
+    private static boolean isSimple(char c) {
+        return (c > ' ' && c < '\u0300')
+                || (c >= '\u0370' && c < '\u0590')
+                || (c >= '\u2010' && c <= '\u2027')
+                || (c >= '\u2030' && c <= '\u205E');
+    }
+
+    private Measure measure(Font font) {
+        Measure m = measures.get(font);
+        if (m == null) {
+            FontMetrics fm = fonts.getMetrics(g2, font);
+            int[] latin = fonts.getWidths(g2, font);
+            m = new Measure();
+            m.wordWidths = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                String w = words[i];
+                if ( ! additive ) {
+                    m.wordWidths[i] = fm.stringWidth(w);
+                    continue;
+                }
+                int width = 0;
+                for (int k = 0; k < w.length(); k++) {
+                    char c = w.charAt(k);
+                    width += (c < 256) ? latin[c] : fm.charWidth(c);
+                }
+                m.wordWidths[i] = width;
+            }
+            m.space = latin[' '];
+            m.lineHeight = fm.getHeight();
+            measures.put(font, m);
+        }
+        return m;
+    }
+
+    private Font derive(Font font, int size) {
+        return fonts.derive(font, font.getStyle(), size);
+    }
+
+    /**
+     * Same as TextProcessor.resizeToFit starting from the given font:
+     * the smaller of the vertical and horizontal limits, each found by doubling
+     * the font size then binary searching.
+     *
+     * @return font size to draw the text at
+     */
+    public int fitFontSize(Font start, Rectangle box) {
+        int lineWidth = box.width();
+        int height = box.height();
+
+        // vertical limit
+        Font current = start;
+        int fontSize = current.getSize();
+        while (textHeight(measure(current), lineWidth) <= height) {
+            fontSize *= 2;
+            current = derive(current, fontSize);
+        }
+        int sLo = 0, sHi = fontSize;
+        while (sLo < sHi) {
+            fontSize = (sLo + sHi + 1) / 2;
+            current = derive(current, fontSize);
+            if (textHeight(measure(current), lineWidth) > height) {
+                sHi = fontSize - 1;
+            }
+            else {
+                sLo = fontSize;
+            }
+        }
+        int vSize = sLo;
+
+        // horizontal limit: the widest word, as measured where the vertical search left off
+        int longest = longestWord(measure(current));
+        fontSize = current.getSize();
+        while (wordWidth(measure(current), longest) <= lineWidth) {
+            fontSize *= 2;
+            current = derive(current, fontSize);
+        }
+        sLo = 0;
+        sHi = fontSize;
+        while (sLo < sHi) {
+            fontSize = (sLo + sHi + 1) / 2;
+            current = derive(current, fontSize);
+            if (wordWidth(measure(current), longest) > lineWidth) {
+                sHi = fontSize - 1;
+            }
+            else {
+                sLo = fontSize;
+            }
+        }
+        int hSize = sLo;
+
+        return Math.min(vSize, hSize);
+    }
+
+    /**
+     * @return index of the first widest word, -1 for the empty token
+     *          TextProcessor sees in front of text starting with whitespace
+     */
+    private int longestWord(Measure m) {
+        int longest = leadingSpace ? -1 : 0;
+        int maxLength = leadingSpace ? 0 : m.wordWidths[0];
+        for (int i = 0; i < words.length; i++) {
+            if (m.wordWidths[i] > maxLength) {
+                maxLength = m.wordWidths[i];
+                longest = i;
+            }
+        }
+        return longest;
+    }
+
+    private static int wordWidth(Measure m, int word) {
+        return word < 0 ? 0 : m.wordWidths[word];
+    }
+
+    private int textHeight(Measure m, int lineWidth) {
+        int lines = (breaking == LineBreaking.BALANCED) ? balancedLines(m, lineWidth) : breakLines(m, lineWidth, null);
+        return lines * m.lineHeight;
+    }
+
+    /**
+     * Same as TextProcessor.splitIntoLines with the given font.
+     */
+    public String[] splitIntoLines(Font font, int lineWidth) {
+        List<String> lines = new ArrayList<>();
+        if (breaking == LineBreaking.BALANCED) {
+            balancedLines(measure(font), lineWidth);
+            for (int i = 0; i < words.length; i = lineEnd[i]) {
+                lines.add(join(i, lineEnd[i]));
+            }
+        }
+        else {
+            breakLines(measure(font), lineWidth, lines);
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Greedy line breaking, as TextProcessor.splitIntoLines does it, on widths alone.
+     * A word too long for a line of its own is measured, and kept, with a space in front.
+     *
+     * @param lines if not null, gets the lines' text
+     * @return number of lines
+     */
+    private int breakLines(Measure m, int lineWidth, List<String> lines) {
+        int count = 0;
+        int lineStart = -1;     // first word of the line being filled, -1 while it's empty
+        int width = 0;          // of the line being filled
+        for (int i = 0; i < words.length; i++) {
+            int withWord = (lineStart < 0 ? 0 : width) + m.space + m.wordWidths[i];
+            if (withWord > lineWidth) {
+                count ++;
+                if (lineStart < 0) {
+                    if (lines != null) {
+                        lines.add(" " + words[i]);
+                    }
+                }
+                else {
+                    if (lines != null) {
+                        lines.add(join(lineStart, i));
+                    }
+                    lineStart = i;
+                    width = m.wordWidths[i];
+                }
+            }
+            else if (lineStart < 0) {
+                lineStart = i;
+                width = m.wordWidths[i];
+            }
+            else {
+                width = withWord;
+            }
+        }
+        if (lineStart >= 0) {
+            count ++;
+            if (lines != null) {
+                lines.add(join(lineStart, words.length));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Minimum raggedness line breaking, after Knuth and Plass: of all the ways to break the text
+     * into as few lines as possible, the one with the least sum of squared space left over
+     * at the ends of lines. The last line counts too, since bubble text is centered.
+     * A word wider than a line gets a line of its own.
+     *
+     * cost[i] is the least cost of setting words i.. , lineEnd[i] where the first of those lines ends.
+     * Every line costs more than all the leftover space could add up to, so fewer lines always win.
+     *
+     * @return number of lines; lineEnd holds the breaks
+     */
+    private int balancedLines(Measure m, int lineWidth) {
+        int n = words.length;
+        long wide = Math.max(lineWidth, 1);
+        long perLine = wide * wide * (n + 1);
+        cost[n] = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            long best = Long.MAX_VALUE;
+            int bestEnd = i + 1;
+            int width = -m.space;
+            for (int j = i; j < n; j++) {
+                width += m.space + m.wordWidths[j];
+                if (width > lineWidth && j > i) {
+                    break;
+                }
+                long slack = lineWidth - width;
+                long c = perLine + slack * slack + cost[j + 1];
+                if (c < best) {
+                    best = c;
+                    bestEnd = j + 1;
+                }
+            }
+            cost[i] = best;
+            lineEnd[i] = bestEnd;
+        }
+
+        int lines = 0;
+        for (int i = 0; i < n; i = lineEnd[i]) {
+            lines ++;
+        }
+        return lines;
+    }
+
+    private String join(int from, int to) {
+        StringBuilder line = new StringBuilder(words[from]);
+        for (int i = from + 1; i < to; i++) {
+            line.append(' ').append(words[i]);
+        }
+        return line.toString();
+    }
+}
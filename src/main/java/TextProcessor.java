@@ -3,11 +3,24 @@ import java.util.ArrayList;
 
 public class TextProcessor {
     final Graphics2D g2;
+    private final FontRegistry fonts = FontRegistry.getShared();
+    private LineBreaking lineBreaking = LineBreaking.GREEDY;
 
     public TextProcessor(Graphics2D g2) {
         this.g2 = g2;
     }
 
+    /**
+     * @param lineBreaking how resizeToFit and splitIntoLines break text into lines
+     */
+    public void setLineBreaking(LineBreaking lineBreaking) {
+        this.lineBreaking = lineBreaking;
+    }
+
+    private FontMetrics fontMetrics() {
+        return fonts.getMetrics(g2, g2.getFont());
+    }
+
     public Font getFont() {
         return this.g2.getFont();
     }
@@ -16,12 +29,12 @@ public class TextProcessor {
      * @return height of single line of text to be displayed in a single line, in pixels
      */
     public int lineHeight() {
-        return g2.getFontMetrics().getHeight();
+        return fontMetrics().getHeight();
     }
 
 
     public int lineWidth(String str) {
-        FontMetrics fontMetrics = this.g2.getFontMetrics();
+        FontMetrics fontMetrics = this.fontMetrics();
         return fontMetrics.stringWidth(str.trim());
     }
 
@@ -43,6 +56,12 @@ public class TextProcessor {
     }
 
     public void resizeToFit(String text, Rectangle box) {
+        TextFitter fitter = TextFitter.forText(g2, text, lineBreaking);
+        if (fitter != null) {
+            this.setFontSize(fitter.fitFontSize(g2.getFont(), box));
+            return;
+        }
+
         int vSize = verticalFontSizeLimit(text, box);
         int hSize = horizontalFontSizeLimit(text, box);
 
@@ -52,9 +71,20 @@ public class TextProcessor {
 
 
     public String[] splitIntoLines(String str, int lineWidth) {
+        TextFitter fitter = TextFitter.forText(g2, str, lineBreaking);
+        if (fitter != null) {
+            return fitter.splitIntoLines(g2.getFont(), lineWidth);
+        }
+        return measuredLines(str, lineWidth);
+    }
+
+    /**
+     * splitIntoLines measuring every candidate line with FontMetrics.stringWidth
+     */
+    String[] measuredLines(String str, int lineWidth) {
         str = str.trim().replaceAll(" +", " ");
 
-        FontMetrics fontMetric = g2.getFontMetrics();
+        FontMetrics fontMetric = this.fontMetrics();
         ArrayList<String> lines = new ArrayList<>();
 
         StringBuffer lineBuffer = new StringBuffer();
@@ -156,7 +186,8 @@ public class TextProcessor {
 
     private void setFontSize(int fontSize) {
         Font font = g2.getFont();
-        Font resizedFont = font.deriveFont(
+        Font resizedFont = fonts.derive(
+                font,
                 font.getStyle(),
                 fontSize
         );
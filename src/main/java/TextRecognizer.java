@@ -1,4 +1,9 @@
+import com.google.cloud.vision.v1.Paragraph;
+
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface TextRecognizer {
 
@@ -6,6 +11,40 @@ public interface TextRecognizer {
 
     String getTextFromImageFile(File f);
 
+    /**
+     * Recognize the text in part of an image already in memory.
+     *
+     * @param img page
+     * @param region part of the page to read, inclusive bounds
+     * @return paragraphs found in the region, positioned in page coordinates
+     */
+    List<Paragraph> getParagraphsFromImage(BufferedImage img, Rectangle region) throws Exception;
+
+    /**
+     * Recognize the text in a whole image already in memory.
+     *
+     * @return paragraphs, positioned in image coordinates
+     */
+    default List<Paragraph> getParagraphsFromImage(BufferedImage img) throws Exception {
+        return getParagraphsFromImage(img, new Rectangle(0, 0, img.getWidth() - 1, img.getHeight() - 1));
+    }
+
+    /**
+     * Recognize the text in many parts of the same image, eg. its speech bubbles.
+     * Implementations can do better than reading the regions one at a time.
+     *
+     * @param regions parts of the page to read, inclusive bounds
+     * @return paragraphs found in each region, positioned in page coordinates
+     */
+    default List<List<Paragraph>> getParagraphsFromRegions(BufferedImage img, List<Rectangle> regions)
+            throws Exception {
+        List<List<Paragraph>> paragraphs = new ArrayList<>();
+        for (Rectangle region : regions) {
+            paragraphs.add( getParagraphsFromImage(img, region) );
+        }
+        return paragraphs;
+    }
+
     /**
      * Change our enum language to the String language we desire.
      * Of course, this is dependent on the implementation we are using.
@@ -1,6 +1,10 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.google.cloud.vision.v1.*;    // not sure if importing all is a great idea
 import com.google.cloud.vision.v1.Image;
@@ -8,16 +12,82 @@ import com.google.protobuf.ByteString;
 
 /**
  * Instantiate this class without any arguments
+ *
+ * The Vision client is created on first use and kept for the life of the recognizer,
+ * so close() it when done.
  */
-public class TextRecognizerGoogle implements TextRecognizer {
-    private static final int INF = (1 << 30);
+public class TextRecognizerGoogle implements TextRecognizer, AutoCloseable {
     private final Language language;
     private static final int MARGIN = 10;
+    // most images the Vision API takes in a single batchAnnotateImages call
+    private static final int MAX_IMAGES_PER_REQUEST = 16;
+    // the API turns down requests over 10 MB; leave room for everything besides the images
+    static final int MAX_BYTES_PER_REQUEST = 8 << 20;
+
+    private ImageAnnotatorClient client;
+    private OcrBackend backend;
+    private OcrCache ocrCache;
+    private RemoteCalls calls = RemoteCalls.inline("ocr");
 
     public TextRecognizerGoogle(Language language) {
         this.language = language;
     }
 
+    /**
+     * @param client Vision client to use for every request; closed along with this recognizer
+     */
+    public TextRecognizerGoogle(Language language, ImageAnnotatorClient client) {
+        this.language = language;
+        this.client = client;
+    }
+
+    /**
+     * @param backend where requests go instead of the Vision API, eg. a SyntheticOcrBackend to run offline;
+     *                closed along with this recognizer
+     */
+    public TextRecognizerGoogle(Language language, OcrBackend backend) {
+        this.language = language;
+        this.backend = backend;
+    }
+
+    private synchronized ImageAnnotatorClient getClient() throws IOException {
+        if (this.client == null) {
+            this.client = ImageAnnotatorClient.create();
+        }
+        return this.client;
+    }
+
+    /**
+     * @param ocrCache consulted before, and filled after, every request; null for none
+     */
+    public void setOcrCache(OcrCache ocrCache) {
+        this.ocrCache = ocrCache;
+    }
+
+    public OcrCache getOcrCache() {
+        return this.ocrCache;
+    }
+
+    /**
+     * @param calls how requests are made: how many at once, how long they may take, how often they are retried.
+     *              By default they're made once each, in the calling thread.
+     */
+    public void setRemoteCalls(RemoteCalls calls) {
+        this.calls = calls;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.client != null) {
+            // what close() does, without its throws Exception
+            this.client.shutdown();
+            this.client = null;
+        }
+        if (this.backend != null) {
+            this.backend.close();
+            this.backend = null;
+        }
+    }
 
 
     /**
@@ -28,40 +98,203 @@ public class TextRecognizerGoogle implements TextRecognizer {
      * @throws Exception
      */
     public List<Paragraph> detectDocumentText(String filePath) throws Exception {
-        List<AnnotateImageRequest> requests = new ArrayList<>();
+        return detectDocumentText(Collections.singletonList(filePath)).get(0);
+    }
+
+    /**
+     * Recognize many pages, sending them to the Vision API in as few calls as it allows.
+     *
+     * @param filePaths single image files
+     * @return joined paragraphs of each page, in the same order as the files.
+     *          A page the API fails on gets an empty list.
+     * @throws Exception
+     */
+    public List<List<Paragraph>> detectDocumentText(List<String> filePaths) throws Exception {
+        List<ByteString> images = new ArrayList<>();
+        for (String filePath : filePaths) {
+            images.add( PageImage.readBytes(Paths.get(filePath)) );
+        }
+        return detectDocumentTextFromBytes(images);
+    }
+
+    /**
+     * Same as detectDocumentText(filePaths), for images already in memory (encoded, eg. JPEG bytes).
+     * Pages found in the OCR cache, if there is one, are not sent.
+     */
+    public List<List<Paragraph>> detectDocumentTextFromBytes(List<ByteString> images) throws Exception {
+        return RemoteCalls.join(detectDocumentTextAsync(images));
+    }
 
-        ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    /**
+     * Same as detectDocumentTextFromBytes, without waiting for the Vision API: requests are made
+     * as setRemoteCalls says, and the pages' paragraphs are joined in the thread the last one comes back on.
+     *
+     * @return joined paragraphs of each page, once all are read; fails if any request does
+     */
+    public CompletableFuture<List<List<Paragraph>>> detectDocumentTextAsync(List<ByteString> images) {
+        long started = Metrics.start();
+        List<List<Paragraph>> pages = new ArrayList<>(Collections.nCopies(images.size(), (List<Paragraph>)null));
+        List<Integer> toSend = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            String key = (ocrCache == null) ? null : OcrCache.key(images.get(i), "google", language);
+            keys.add(key);
+            List<Paragraph> cached = (key == null) ? null : ocrCache.get(key);
+            if (cached != null) {
+                pages.set(i, cached);
+            }
+            else {
+                toSend.add(i);
+            }
+        }
 
-        Image img = Image.newBuilder().setContent(imgBytes).build();
         Feature feat = Feature.newBuilder().setType(Feature.Type.DOCUMENT_TEXT_DETECTION).build();
-        AnnotateImageRequest request =
-                AnnotateImageRequest.newBuilder().addFeatures(feat).setImage(img).build();
-        requests.add(request);
+        List<CompletableFuture<Void>> sending = new ArrayList<>();
+        for (List<Integer> batch : batches(images, toSend)) {
+            List<AnnotateImageRequest> requests = new ArrayList<>();
+            for (int i : batch) {
+                Image img = Image.newBuilder().setContent(images.get(i)).build();
+                AnnotateImageRequest request =
+                        AnnotateImageRequest.newBuilder().addFeatures(feat).setImage(img).build();
+                requests.add(request);
+            }
 
-        List<Paragraph> paragraphs = new ArrayList<>();
+            sending.add(calls.call(() -> {
+                long sent = Metrics.start();
+                BatchAnnotateImagesResponse response = (backend != null)
+                        ? backend.batchAnnotateImages(requests)
+                        : getClient().batchAnnotateImages(requests);
+                Metrics.stop("ocr.visionRequest", sent);
+                Metrics.count("ocr.imagesSent", batch.size());
+                return response;
+            }).thenAccept(response -> {
+                for (int k = 0; k < batch.size(); k++) {
+                    AnnotateImageResponse res = response.getResponses(k);
+                    List<Paragraph> paragraphs = joinAllParagraphs( paragraphsOf(res) );
+                    pages.set(batch.get(k), paragraphs);
+                    if (ocrCache != null && ! res.hasError()) {
+                        ocrCache.put(keys.get(batch.get(k)), paragraphs);
+                    }
+                }
+            }));
+        }
 
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
-            BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-            List<AnnotateImageResponse> responses = response.getResponsesList();
-            client.close();
+        return CompletableFuture.allOf(sending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Metrics.stop("ocr.detectDocumentText", started);
+            return pages;
+        });
+    }
 
-            for (AnnotateImageResponse res : responses) {
-                if (res.hasError()) {
-                    System.err.printf("Error: %s\n", res.getError().getMessage());
-                    return new ArrayList<>();
-                }
+    /**
+     * Split the given images into requests within the API's limits, on the number of images
+     * and on their total size, keeping their order. An image too large by itself goes alone.
+     */
+    static List<List<Integer>> batches(List<ByteString> images, List<Integer> indices) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (int i : indices) {
+            int size = images.get(i).size();
+            if ( ! batch.isEmpty() &&
+                    (batch.size() == MAX_IMAGES_PER_REQUEST || batchBytes + size > MAX_BYTES_PER_REQUEST) ) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(i);
+            batchBytes += size;
+        }
+        if ( ! batch.isEmpty() ) {
+            batches.add(batch);
+        }
+        return batches;
+    }
 
-                // For full list of available annotations, see http://g.co/cloud/vision/docs
-                TextAnnotation annotation = res.getFullTextAnnotation();
-                for (Page page: annotation.getPagesList()) {
-                    for (Block block : page.getBlocksList()) {
-                        paragraphs.addAll( block.getParagraphsList() );
-                    }
+    /**
+     * The region is cut out and sent as a PNG, so only its pixels go over the network.
+     */
+    @Override
+    public List<Paragraph> getParagraphsFromImage(BufferedImage img, Rectangle region) throws Exception {
+        return getParagraphsFromRegions(img, Collections.singletonList(region)).get(0);
+    }
+
+    /**
+     * Each region is cut out (as a view, getSubimage copies nothing) and encoded as a PNG,
+     * and all of them go out together, batched like pages are.
+     */
+    @Override
+    public List<List<Paragraph>> getParagraphsFromRegions(BufferedImage img, List<Rectangle> regions)
+            throws Exception {
+        List<Rectangle> clamped = new ArrayList<>();
+        List<ByteString> crops = new ArrayList<>();
+        for (Rectangle region : regions) {
+            region = region.clampTo(img.getWidth(), img.getHeight());
+            clamped.add(region);
+            if (region == null) {
+                continue;
+            }
+            BufferedImage crop = img.getSubimage(region.xmin(), region.ymin(), region.width() + 1, region.height() + 1);
+            ByteString.Output png = ByteString.newOutput();
+            ImageIO.write(crop, "png", png);
+            crops.add(png.toByteString());
+        }
+
+        List<List<Paragraph>> read = detectDocumentTextFromBytes(crops);
+        List<List<Paragraph>> paragraphs = new ArrayList<>();
+        int next = 0;
+        for (Rectangle region : clamped) {
+            List<Paragraph> onPage = new ArrayList<>();
+            if (region != null) {
+                for (Paragraph p : read.get(next++)) {
+                    onPage.add( offset(p, region.xmin(), region.ymin()) );
                 }
             }
+            paragraphs.add(onPage);
+        }
+        return paragraphs;
+    }
+
+    /**
+     * @return the paragraph moved by (dx, dy), along with its words and symbols
+     */
+    static Paragraph offset(Paragraph p, int dx, int dy) {
+        if (dx == 0 && dy == 0) {
+            return p;
+        }
+        Paragraph.Builder paragraph = p.toBuilder().setBoundingBox(offset(p.getBoundingBox(), dx, dy));
+        for (int w = 0; w < paragraph.getWordsCount(); w++) {
+            Word.Builder word = paragraph.getWordsBuilder(w);
+            word.setBoundingBox(offset(word.getBoundingBox(), dx, dy));
+            for (Symbol.Builder symbol : word.getSymbolsBuilderList()) {
+                symbol.setBoundingBox(offset(symbol.getBoundingBox(), dx, dy));
+            }
+        }
+        return paragraph.build();
+    }
+
+    private static BoundingPoly offset(BoundingPoly poly, int dx, int dy) {
+        BoundingPoly.Builder moved = BoundingPoly.newBuilder();
+        for (Vertex v : poly.getVerticesList()) {
+            moved.addVertices(Vertex.newBuilder().setX(v.getX() + dx).setY(v.getY() + dy));
+        }
+        return moved.build();
+    }
+
+    private List<Paragraph> paragraphsOf(AnnotateImageResponse res) {
+        List<Paragraph> paragraphs = new ArrayList<>();
+        if (res.hasError()) {
+            System.err.printf("Error: %s\n", res.getError().getMessage());
+            return paragraphs;
         }
 
-        return joinAllParagraphs( paragraphs );
+        // For full list of available annotations, see http://g.co/cloud/vision/docs
+        TextAnnotation annotation = res.getFullTextAnnotation();
+        for (Page page: annotation.getPagesList()) {
+            for (Block block : page.getBlocksList()) {
+                paragraphs.addAll( block.getParagraphsList() );
+            }
+        }
+        return paragraphs;
     }
 
 
@@ -75,18 +308,11 @@ public class TextRecognizerGoogle implements TextRecognizer {
         if (poly == null) {
             return null;
         }
-        int xmin, xmax, ymin, ymax;
-        xmin = ymin = INF;
-        xmax = ymax = - INF;
-
-        for(Vertex v : poly.getVerticesList()) {
-            if (v.getX() < xmin) xmin = v.getX();
-            if (v.getY() < ymin) ymin = v.getY();
-            if (v.getX() > xmax) xmax = v.getX();
-            if (v.getY() > ymax) ymax = v.getY();
-        }
+        return boundingBoxFromRectangle( Rectangle.fromBoundingPoly(poly) );
+    }
 
-        return boundingBoxFromAxes(xmin, ymin, xmax, ymax);
+    private BoundingPoly boundingBoxFromRectangle(Rectangle rect) {
+        return boundingBoxFromAxes(rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax());
     }
 
     private BoundingPoly boundingBoxFromAxes(int xmin, int ymin, int xmax, int ymax) {
@@ -102,21 +328,6 @@ public class TextRecognizerGoogle implements TextRecognizer {
         return boxBuilder.build();
     }
 
-    private Vertex upperRightVertex(BoundingPoly poly) {
-        int xmin, xmax, ymin, ymax;
-        xmin = ymin = INF;
-        xmax = ymax = - INF;
-
-        for(Vertex v : poly.getVerticesList()) {
-            if (v.getX() < xmin) xmin = v.getX();
-            if (v.getY() < ymin) ymin = v.getY();
-            if (v.getX() > xmax) xmax = v.getX();
-            if (v.getY() > ymax) ymax = v.getY();
-        }
-
-        return Vertex.newBuilder().setX(xmax).setY(ymin).build();
-    }
-
     /**
      * Join any paragraphs whose axis aligned bounding boxes intersect
      *  eg. they are <= 1 pixels away from each other.
@@ -128,15 +339,34 @@ public class TextRecognizerGoogle implements TextRecognizer {
      * @return new list of paragraphs as described
      */
     public List<Paragraph> joinAllParagraphs(List<Paragraph> paragraphs) {
+        return joinAllParagraphs(paragraphs, null);
+    }
+
+    /**
+     * Same as joinAllParagraphs(paragraphs), but also joins paragraphs that sit in the
+     * same speech bubble of the page, however far apart they are.
+     *
+     * @param paragraphs list of paragraphs
+     * @param bubbles segmentation of the page the paragraphs were recognized on, or null
+     * @return new list of paragraphs as described
+     */
+    public List<Paragraph> joinAllParagraphs(List<Paragraph> paragraphs, BubbleSegmentation bubbles) {
+        long started = Metrics.start();
+        // boxes are read out of the protobufs once; all sorting and joining works on these
+        int n = paragraphs.size();
+        final Rectangle[] rects = new Rectangle[n];
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; i++) {
+            rects[i] = Rectangle.fromBoundingPoly( paragraphs.get(i).getBoundingBox() );
+            order[i] = i;
+        }
+
         if (this.getLanguage() == Language.JPN) {
-            // create copy so that original list is not modified
-            paragraphs = new ArrayList<>(paragraphs);
-            Collections.sort(paragraphs, new Comparator<Paragraph>() {
+            // by x of upper right vertex; stable, so ties keep their original order
+            Arrays.sort(order, new Comparator<Integer>() {
                 @Override
-                public int compare(Paragraph o1, Paragraph o2) {
-                    Vertex v1 = upperRightVertex(o1.getBoundingBox());
-                    Vertex v2 = upperRightVertex(o2.getBoundingBox());
-                    return Integer.compare(v1.getX(), v2.getX());
+                public int compare(Integer o1, Integer o2) {
+                    return Integer.compare(rects[o1].xmax(), rects[o2].xmax());
                 }
             });
         }
@@ -145,108 +375,45 @@ public class TextRecognizerGoogle implements TextRecognizer {
         }
 
 
-        ArrayList<Paragraph> paras = new ArrayList<>();
-        for(Paragraph para : paragraphs) {
-            BoundingPoly newBox = alignedBoundingBox( para.getBoundingBox() );
-            Paragraph newPara = para.toBuilder().setBoundingBox( newBox ).build();
-            paras.add( newPara );
+        int[] xmin = new int[n], ymin = new int[n], xmax = new int[n], ymax = new int[n];
+        // bubble label of each paragraph, 0 if none (or no segmentation)
+        int[] labels = new int[n];
+        for (int i=0; i<n; i++) {
+            Rectangle rect = rects[order[i]];
+            xmin[i] = rect.xmin();
+            ymin[i] = rect.ymin();
+            xmax[i] = rect.xmax();
+            ymax[i] = rect.ymax();
+            // the bubble of the box between the corners, as BoxClustering takes it
+            labels[i] = bubbles == null ? 0 : bubbles.bubbleAt(new Rectangle(
+                    Math.min(xmin[i], xmax[i]), Math.min(ymin[i], ymax[i]),
+                    Math.max(xmin[i], xmax[i]), Math.max(ymin[i], ymax[i])));
         }
 
-        boolean hasIntersection;
-        do {
-            hasIntersection = false;
-            for (int i=0; i<paras.size() && ! hasIntersection; i++) {
-                for (int j=i+1; j<paras.size(); j++) {
-                    Paragraph p1 = paras.get(i);
-                    Paragraph p2 = paras.get(j);
-                    Optional<Paragraph> joinedParagraph = joinParagraphs(p1, p2);
-                    if (joinedParagraph.isPresent()) {
-                        hasIntersection = true;
-                        paras.remove(j);
-                        paras.remove(i);
-                        paras.add(i, joinedParagraph.get());
-                        break;
-                    }
-                }
+        BoxClustering clustering = new BoxClustering(xmin, ymin, xmax, ymax, labels, MARGIN);
+        List<Paragraph> paras = new ArrayList<>();
+        for (int[] members : clustering.run()) {
+            if (members.length == 1) {
+                Paragraph para = paragraphs.get( order[members[0]] );
+                BoundingPoly newBox = boundingBoxFromRectangle( rects[order[members[0]]] );
+                paras.add( para.toBuilder().setBoundingBox( newBox ).build() );
+                continue;
             }
-        } while(hasIntersection);
-
-        return paras;
-    }
-
-    private Optional<Paragraph> joinParagraphs(Paragraph p1, Paragraph p2) {
-        Optional<BoundingPoly> joinedBoundingBox = joinBoundingBoxes(
-                p1.getBoundingBox(),
-                p2.getBoundingBox()
-        );
-        if ( ! joinedBoundingBox.isPresent() ) {
-            return Optional.empty();
-        }
-        Paragraph.Builder ParaBuilder = Paragraph.newBuilder();
-        ParaBuilder.addAllWords( p1.getWordsList() );
-        ParaBuilder.addAllWords( p2.getWordsList() );
-        ParaBuilder.setBoundingBox( joinedBoundingBox.get() );
-        return Optional.of( ParaBuilder.build() );
-    }
-
-    private Optional<BoundingPoly> joinBoundingBoxes(BoundingPoly p1, BoundingPoly p2) {
-        if ( ! boxesIntersect(p1, p2, MARGIN) ) {
-            return Optional.empty();
-        }
-
-        int xmin, xmax, ymin, ymax;
-        xmin = ymin = INF;
-        xmax = ymax = - INF;
-
-        List<Vertex> vertices = new ArrayList<>();
-        vertices.addAll(p1.getVerticesList());
-        vertices.addAll(p2.getVerticesList());
-
-        for(Vertex v : vertices) {
-            if (v.getX() < xmin) xmin = v.getX();
-            if (v.getY() < ymin) ymin = v.getY();
-            if (v.getX() > xmax) xmax = v.getX();
-            if (v.getY() > ymax) ymax = v.getY();
-        }
-
-        return Optional.of(boundingBoxFromAxes(xmin, ymin, xmax, ymax));
-    }
-
-    /**
-     * Return whether 2 axis aligned bounding boxes intersect
-     *
-     * @param p1 first axis aligned bounding box
-     * @param p2 second one
-     * @return whether they intersect
-     */
-    private boolean boxesIntersect(BoundingPoly p1, BoundingPoly p2, int margin) {
-        int xmin, xmax, ymin, ymax;
-        xmin = ymin = INF;
-        xmax = ymax = - INF;
-
-        for(Vertex v : p1.getVerticesList()) {
-            if (v.getX() < xmin) xmin = v.getX();
-            if (v.getY() < ymin) ymin = v.getY();
-            if (v.getX() > xmax) xmax = v.getX();
-            if (v.getY() > ymax) ymax = v.getY();
-        }
-
-        xmin -= margin;
-        ymin -= margin;
-        xmax += margin;
-        ymax += margin;
-
-        for(Vertex v2 : p2.getVerticesList()) {
-            if ( v2.getX() >= xmin && v2.getX() <= xmax
-                    && v2.getY() >= ymin && v2.getY() <= ymax ) {
-                return true;
+            int[] b = clustering.bounds(members[0]);
+            BoundingPoly newBox = boundingBoxFromAxes(b[0], b[1], b[2], b[3]);
+            Paragraph.Builder ParaBuilder = Paragraph.newBuilder();
+            for (int m : members) {
+                ParaBuilder.addAllWords( paragraphs.get( order[m] ).getWordsList() );
             }
+            ParaBuilder.setBoundingBox( newBox );
+            paras.add( ParaBuilder.build() );
         }
 
-        return false;
+        Metrics.observe("ocr.paragraphs", n);
+        Metrics.stop("ocr.joinAllParagraphs", started);
+        return paras;
     }
 
-
     @Override
     public Language getLanguage() {
         return language;
@@ -1,5 +1,18 @@
+import com.google.cloud.vision.v1.Paragraph;
 import net.sourceforge.tess4j.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -7,11 +20,20 @@ import java.io.*;
  */
 public class TextRecognizerTesseract implements TextRecognizer {
     private final Language language;
-    private ITesseract tess;
+    private final TesseractPool pool;
+    // runs region shares in parallel; their number is bounded by the engine pool anyway
+    private static ExecutorService regionExecutor;
 
     public TextRecognizerTesseract(Language language) {
-        tess = new Tesseract();
+        this(language, TesseractPool.getShared());
+    }
+
+    /**
+     * @param pool engines to recognize with, may be shared between recognizers
+     */
+    public TextRecognizerTesseract(Language language, TesseractPool pool) {
         this.language = language;
+        this.pool = pool;
     }
 
     @Override
@@ -40,19 +62,131 @@ public class TextRecognizerTesseract implements TextRecognizer {
     }
 
     public String getTextFromImageFile(File f) {
-        tess = new Tesseract();
-        tess.setLanguage( implSpecificLanguage(language) );
-
         String result;
         try {
-            result = tess.doOCR(f);
-        } catch (TesseractException e) {
+            BufferedImage img = ImageIO.read(f);
+            if (img == null) {
+                throw new TesseractException("not an image: " + f);
+            }
+            TesseractEngine engine = pool.borrow( implSpecificLanguage(language) );
+            try {
+                result = engine.recognize(img);
+            } finally {
+                pool.release(engine);
+            }
+        } catch (TesseractException | IOException e) {
             result = "Error: getTextFromImageFile";
             System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = "Error: getTextFromImageFile";
         }
         return result;
     }
 
+    /**
+     * Reads the image straight from memory, through Tesseract's result iterator.
+     */
+    @Override
+    public List<Paragraph> getParagraphsFromImage(BufferedImage img, Rectangle region)
+            throws TesseractException, InterruptedException {
+        region = region.clampTo(img.getWidth(), img.getHeight());
+        if (region == null) {
+            return new ArrayList<>();
+        }
+        TesseractEngine engine = pool.borrow( implSpecificLanguage(language) );
+        try {
+            return engine.recognizeParagraphs(img, region);
+        } finally {
+            pool.release(engine);
+        }
+    }
+
+    /**
+     * The regions are split between as many engines as the pool allows, each reading its
+     * share in parallel, handed the page only once.
+     */
+    @Override
+    public List<List<Paragraph>> getParagraphsFromRegions(final BufferedImage img, List<Rectangle> regions)
+            throws Exception {
+        final List<Rectangle> clamped = new ArrayList<>();
+        for (Rectangle region : regions) {
+            clamped.add(region.clampTo(img.getWidth(), img.getHeight()));
+        }
+        int engines = Math.min(pool.getSize(), clamped.size());
+        if (engines <= 1) {
+            return recognizeShare(img, clamped, 0, 1);
+        }
+
+        List<Future<List<List<Paragraph>>>> shares = new ArrayList<>();
+        for (int e = 0; e < engines; e++) {
+            final int share = e;
+            final int shareCount = engines;
+            shares.add( regionExecutor().submit(new Callable<List<List<Paragraph>>>() {
+                @Override
+                public List<List<Paragraph>> call() throws Exception {
+                    return recognizeShare(img, clamped, share, shareCount);
+                }
+            }) );
+        }
+
+        List<List<Paragraph>> paragraphs = new ArrayList<>(Collections.nCopies(clamped.size(), (List<Paragraph>)null));
+        for (int e = 0; e < engines; e++) {
+            List<List<Paragraph>> share;
+            try {
+                share = shares.get(e).get();
+            } catch (ExecutionException ex) {
+                throw (ex.getCause() instanceof Exception) ? (Exception)ex.getCause() : ex;
+            }
+            for (int k = 0; k < share.size(); k++) {
+                paragraphs.set(e + k * engines, share.get(k));
+            }
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Read regions share, share + shareCount, share + 2 * shareCount, ... on one engine.
+     * Regions outside the image (null) get no paragraphs.
+     */
+    private List<List<Paragraph>> recognizeShare(BufferedImage img, List<Rectangle> regions, int share, int shareCount)
+            throws TesseractException, InterruptedException {
+        List<Rectangle> mine = new ArrayList<>();
+        for (int i = share; i < regions.size(); i += shareCount) {
+            if (regions.get(i) != null) {
+                mine.add(regions.get(i));
+            }
+        }
+        List<List<Paragraph>> read;
+        TesseractEngine engine = pool.borrow( implSpecificLanguage(language) );
+        try {
+            read = engine.recognizeParagraphs(img, mine);
+        } finally {
+            pool.release(engine);
+        }
+
+        List<List<Paragraph>> paragraphs = new ArrayList<>();
+        int next = 0;
+        for (int i = share; i < regions.size(); i += shareCount) {
+            paragraphs.add( regions.get(i) == null ? new ArrayList<Paragraph>() : read.get(next++) );
+        }
+        return paragraphs;
+    }
+
+    private static synchronized ExecutorService regionExecutor() {
+        if (regionExecutor == null) {
+            regionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "tesseract-regions");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return regionExecutor;
+    }
+
     public static void main(String[] args) throws Exception {
         File imageFile = new File("random_manga_images/easy/watari_4.jpeg");
         TextRecognizer tess = new TextRecognizerTesseract(Language.JPN);
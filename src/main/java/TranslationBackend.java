@@ -0,0 +1,14 @@
+import java.util.List;
+
+/**
+ * Where Translator sends its requests: the Translation API, or a stand-in for running
+ * without a network (SyntheticTranslationBackend).
+ */
+public interface TranslationBackend {
+    /**
+     * One request, within the Translation API's limits.
+     *
+     * @return translations HTML escaped, as the Translation API returns them, in the same order as texts
+     */
+    List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage);
+}
@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers texts to translate from any number of threads (eg. pages translated in parallel)
+ * into as few requests as possible:
+ *  - a text already waiting or on its way, for the same languages, isn't sent again:
+ *    everyone asking for it gets the one translation (single flight)
+ *  - texts asked for within windowMillis of the first one waiting go out together,
+ *    in requests as large as the API allows (micro-batching)
+ *
+ * So a quota counting requests goes as far as it can, and one counting characters
+ * isn't spent twice on the same text.
+ *
+ * Each caller's translation completes in the Metrics scope the caller asked from,
+ * so what it does once the translation is back is recorded there.
+ */
+public class TranslationBatcher {
+
+    public interface Sender {
+        /**
+         * @return translations as the API returns them (HTML escaped), in the same order as texts
+         */
+        CompletableFuture<List<String>> send(List<String> texts, String sourceLanguage, String targetLanguage);
+    }
+
+    private final long windowMillis;
+    private final Sender sender;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    // batch waiting to go out, by language pair
+    private final Map<String, Batch> waiting = new HashMap<>();
+
+    private static class Batch {
+        final String sourceLanguage, targetLanguage;
+        final List<String> texts = new ArrayList<>();
+        final List<CompletableFuture<String>> translations = new ArrayList<>();
+        final List<Metrics> scopes = new ArrayList<>();
+        int chars = 0;
+
+        Batch(String sourceLanguage, String targetLanguage) {
+            this.sourceLanguage = sourceLanguage;
+            this.targetLanguage = targetLanguage;
+        }
+
+        boolean fits(String text) {
+            return texts.size() < Translator.MAX_STRINGS_PER_REQUEST
+                    && (texts.isEmpty() || chars + text.length() <= Translator.MAX_CHARS_PER_REQUEST);
+        }
+    }
+
+    /**
+     * @param windowMillis longest a text waits for others to go out with
+     * @param sender makes one request
+     */
+    public TranslationBatcher(long windowMillis, Sender sender) {
+        this.windowMillis = windowMillis;
+        this.sender = sender;
+    }
+
+    /**
+     * @return the text's translation as the API returns it (HTML escaped)
+     */
+    public CompletableFuture<String> translate(String text, String sourceLanguage, String targetLanguage) {
+        String key = sourceLanguage + ">" + targetLanguage + "\t" + text;
+        Metrics scope = Metrics.current();
+        CompletableFuture<String> translation = new CompletableFuture<>();
+        CompletableFuture<String> shared = inFlight.putIfAbsent(key, translation);
+        if (shared != null) {
+            Metrics.count("translate.coalesced", 1);
+            shared.whenComplete((t, e) -> complete(translation, t, e, scope));
+            return translation;
+        }
+        translation.whenComplete((t, e) -> inFlight.remove(key, translation));
+
+        String pair = sourceLanguage + ">" + targetLanguage;
+        List<Batch> full = new ArrayList<>();
+        synchronized (this) {
+            Batch batch = waiting.get(pair);
+            if (batch != null && ! batch.fits(text)) {
+                waiting.remove(pair);
+                full.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                Batch started = new Batch(sourceLanguage, targetLanguage);
+                waiting.put(pair, started);
+                RemoteCalls.SCHEDULER.schedule(() -> sendWaiting(pair, started), windowMillis, TimeUnit.MILLISECONDS);
+                batch = started;
+            }
+            batch.texts.add(text);
+            batch.translations.add(translation);
+            batch.scopes.add(scope);
+            batch.chars += text.length();
+            if (batch.texts.size() == Translator.MAX_STRINGS_PER_REQUEST) {
+                waiting.remove(pair);
+                full.add(batch);
+            }
+        }
+        for (Batch batch : full) {
+            send(batch);
+        }
+        return translation;
+    }
+
+    /**
+     * Send the batch if it's still waiting, ie. it didn't fill up and go out before its window closed.
+     */
+    private void sendWaiting(String pair, Batch batch) {
+        synchronized (this) {
+            if (waiting.get(pair) != batch) {
+                return;
+            }
+            waiting.remove(pair);
+        }
+        // off the timer thread, in case the sender makes the request right there
+        CompletableFuture.runAsync(() -> send(batch));
+    }
+
+    private void send(Batch batch) {
+        Metrics.observe("translate.batchSize", batch.texts.size());
+        CompletableFuture<List<String>> sent;
+        try {
+            sent = sender.send(batch.texts, batch.sourceLanguage, batch.targetLanguage);
+        } catch (RuntimeException e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+        sent.whenComplete((escaped, failed) -> {
+            Throwable failure = failed;
+            if (failure == null && escaped.size() != batch.texts.size()) {
+                failure = new IllegalStateException(
+                        escaped.size() + " translations back for " + batch.texts.size() + " texts");
+            }
+            for (int k = 0; k < batch.translations.size(); k++) {
+                complete(batch.translations.get(k), failure == null ? escaped.get(k) : null, failure,
+                        batch.scopes.get(k));
+            }
+        });
+    }
+
+    private static void complete(CompletableFuture<String> translation, String value, Throwable failure,
+                                 Metrics scope) {
+        Metrics previous = Metrics.enter(scope);
+        try {
+            if (failure != null) {
+                translation.completeExceptionally(failure);
+            }
+            else {
+                translation.complete(value);
+            }
+        } finally {
+            Metrics.enter(previous);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Translations we already paid for. Manga repeats itself a lot (names, catchphrases,
+ * sound effects), across pages and across chapters.
+ *
+ * Recently used translations are kept in memory, least recently used first out once they
+ * take up more than a set number of characters. With a file, every translation is also
+ * appended to it, and a translation that fell out of memory is read back from there;
+ * the file is replayed on startup, so the cache survives restarts.
+ *
+ * Texts are looked up by their normalized form (see normalize) plus the language pair.
+ *
+ * Log format: records of [int key length][key, UTF-8][int value length][value, UTF-8].
+ * A record cut short (eg. by a crash) is dropped when the log is next opened.
+ * Records are found by a 64 bit hash of their key, 16 bytes in memory per record however long
+ * the texts, and the key read back is checked against the one looked up.
+ */
+public class TranslationCache implements Closeable {
+    private final long maxChars;
+    private long chars = 0;
+    private final LinkedHashMap<String, String> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final RandomAccessFile log;
+    private final LogIndex logOffsets = new LogIndex();     // key hash -> offset of its record
+
+    private long memoryHits = 0, diskHits = 0, misses = 0;
+    private long requestsMade = 0, requestsSaved = 0;
+
+    /**
+     * In memory only.
+     *
+     * @param maxChars most characters (keys plus translations) to keep in memory
+     */
+    public TranslationCache(long maxChars) {
+        this.maxChars = maxChars;
+        this.log = null;
+    }
+
+    /**
+     * @param maxChars most characters (keys plus translations) to keep in memory
+     * @param logFile append-only log, created if it doesn't exist
+     */
+    public TranslationCache(long maxChars, File logFile) throws IOException {
+        this.maxChars = maxChars;
+        long good = 0;
+        if (logFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                while (true) {
+                    byte[] key = new byte[recordLength(in, logFile)];
+                    in.readFully(key);
+                    // read the value through, rather than skip it: skipping can go past the end
+                    byte[] value = new byte[recordLength(in, logFile)];
+                    in.readFully(value);
+                    logOffsets.put(hash(key), good);
+                    good += 4 + key.length + 4 + value.length;
+                }
+            } catch (EOFException e) {
+                // end of the log, or a record cut short
+            }
+        }
+        this.log = new RandomAccessFile(logFile, "rw");
+        this.log.setLength(good);
+    }
+
+    private static int recordLength(DataInputStream in, File logFile) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > logFile.length()) {
+            throw new EOFException("garbled record");
+        }
+        return length;
+    }
+
+    /**
+     * NFKC (full width ！？ become !?, half width katakana become full width, ...),
+     * and no whitespace: OCR puts it in arbitrary places, and Japanese doesn't use it.
+     */
+    public static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).replaceAll("\\s+", "");
+    }
+
+    private static String key(String text, String sourceLanguage, String targetLanguage) {
+        return sourceLanguage + ">" + targetLanguage + "\t" + normalize(text);
+    }
+
+    /**
+     * @return the translation, null if it isn't cached
+     */
+    public synchronized String get(String text, String sourceLanguage, String targetLanguage) {
+        String key = key(text, sourceLanguage, targetLanguage);
+        String translation = recent.get(key);
+        if (translation != null) {
+            memoryHits ++;
+            return translation;
+        }
+
+        if (log != null) {
+            try {
+                translation = readLogged(key);
+                if (translation != null) {
+                    remember(key, translation);
+                    diskHits ++;
+                    return translation;
+                }
+            } catch (IOException e) {
+                System.err.printf("failed to read translation cache: %s\n", e);
+            }
+        }
+        misses ++;
+        return null;
+    }
+
+    /**
+     * @return the key's translation in the log, null if it isn't there
+     *          (or another key with the same hash took its place in the index)
+     */
+    private String readLogged(String key) throws IOException {
+        long offset = logOffsets.get(hash(key.getBytes(StandardCharsets.UTF_8)));
+        if (offset < 0) {
+            return null;
+        }
+        log.seek(offset);
+        if ( ! readString(log).equals(key) ) {
+            return null;
+        }
+        return readString(log);
+    }
+
+    public synchronized void put(String text, String sourceLanguage, String targetLanguage, String translation) {
+        String key = key(text, sourceLanguage, targetLanguage);
+        remember(key, translation);
+        if (log == null) {
+            return;
+        }
+        try {
+            if (readLogged(key) != null) {
+                return;
+            }
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            byte[] v = translation.getBytes(StandardCharsets.UTF_8);
+            long end = log.length();
+            log.seek(end);
+            log.writeInt(k.length);
+            log.write(k);
+            log.writeInt(v.length);
+            log.write(v);
+            logOffsets.put(hash(k), end);
+        } catch (IOException e) {
+            System.err.printf("failed to write translation cache: %s\n", e);
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a, never 0 (LogIndex's empty slot).
+     */
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Open addressing hash table from key hashes to log offsets, in two arrays.
+     */
+    private static class LogIndex {
+        private long[] hashes = new long[64];
+        private long[] offsets = new long[64];
+        private int size = 0;
+
+        private int slot(long[] hashes, long hash) {
+            int mask = hashes.length - 1;
+            int i = (int)(hash ^ (hash >>> 32)) & mask;
+            while (hashes[i] != 0 && hashes[i] != hash) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /**
+         * @return offset for the hash, -1 if there's none
+         */
+        long get(long hash) {
+            int i = slot(hashes, hash);
+            return hashes[i] == 0 ? -1 : offsets[i];
+        }
+
+        void put(long hash, long offset) {
+            int i = slot(hashes, hash);
+            if (hashes[i] == 0) {
+                size ++;
+            }
+            hashes[i] = hash;
+            offsets[i] = offset;
+            if (size * 4 > hashes.length * 3) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            long[] oldHashes = hashes, oldOffsets = offsets;
+            hashes = new long[oldHashes.length * 2];
+            offsets = new long[oldHashes.length * 2];
+            for (int j = 0; j < oldHashes.length; j++) {
+                if (oldHashes[j] != 0) {
+                    int i = slot(hashes, oldHashes[j]);
+                    hashes[i] = oldHashes[j];
+                    offsets[i] = oldOffsets[j];
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    private void remember(String key, String translation) {
+        String old = recent.put(key, translation);
+        if (old != null) {
+            chars -= key.length() + old.length();
+        }
+        chars += key.length() + translation.length();
+
+        Iterator<Map.Entry<String, String>> eldest = recent.entrySet().iterator();
+        while (chars > maxChars && eldest.hasNext()) {
+            Map.Entry<String, String> e = eldest.next();
+            chars -= e.getKey().length() + e.getValue().length();
+            eldest.remove();
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Count requests to the translation service, made and avoided thanks to the cache.
+     */
+    synchronized void recordRequests(int made, int saved) {
+        requestsMade += made;
+        requestsSaved += saved;
+    }
+
+    public synchronized long getHits() {
+        return memoryHits + diskHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = memoryHits + diskHits + misses;
+        return lookups == 0 ? 0 : (double)(memoryHits + diskHits) / lookups;
+    }
+
+    public synchronized long getRequestsMade() {
+        return requestsMade;
+    }
+
+    /**
+     * @return requests to the translation service that would have been made without the cache
+     */
+    public synchronized long getRequestsSaved() {
+        return requestsSaved;
+    }
+
+    /**
+     * @return number of distinct texts cached, in memory and on disk
+     */
+    public synchronized int size() {
+        if (log == null) {
+            return recent.size();
+        }
+        return logOffsets.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits (%d from disk), %d misses, %.1f%% hit rate, %d of %d requests saved",
+                getHits(), diskHits, misses, 100 * getHitRate(),
+                requestsSaved, requestsMade + requestsSaved);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+}
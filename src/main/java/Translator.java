@@ -7,26 +7,261 @@ import com.google.common.html.HtmlEscapers;
 import org.jsoup.parser.Parser;
 
 import javax.swing.text.html.HTML;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Translator {
-    Translate translationEngine;
+    // limits of a single request to the Translation API
+    static final int MAX_STRINGS_PER_REQUEST = 128;
+    static final int MAX_CHARS_PER_REQUEST = 5000;
+
+    private final TranslationBackend backend;
+    private TranslationCache cache;
+    private RemoteCalls calls = RemoteCalls.inline("translate");
+    private AdaptiveRateLimiter rateLimiter;
+    private TranslationBatcher batcher;
 
     public String translate(String text, String sourceLanguage, String targetLanguage) {
-        Translation translation = this.translationEngine.translate(
-                text,
-                TranslateOption.sourceLanguage(sourceLanguage),
-                TranslateOption.targetLanguage(targetLanguage)
-        );
-        String escapedText = translation.getTranslatedText();
-        return Parser.unescapeEntities(escapedText, false);
+        return translate(Collections.singletonList(text), sourceLanguage, targetLanguage).get(0);
+    }
+
+    /**
+     * Translate many strings in as few requests as the API allows.
+     * Blank strings are not sent, and come back as they are; nor are strings in the cache,
+     * or repeats of a string already being sent (the same once normalized, as the cache has it).
+     *
+     * @return unescaped translations, in the same order as texts
+     */
+    public List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage) {
+        return RemoteCalls.join(translateAsync(texts, sourceLanguage, targetLanguage));
+    }
+
+    /**
+     * Same as translate(texts, ...), without waiting for the API: requests are made as setRemoteCalls says.
+     *
+     * @return unescaped translations, in the same order as texts, once all are back; fails if any request does
+     */
+    public CompletableFuture<List<String>> translateAsync(List<String> texts, String sourceLanguage, String targetLanguage) {
+        List<String> translations = new ArrayList<>(Collections.nCopies(texts.size(), (String)null));
+        List<Integer> nonBlank = new ArrayList<>();
+        List<Integer> toSend = new ArrayList<>();
+        Map<String, Integer> sent = new HashMap<>();  // normalized text -> index sent
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text.trim().isEmpty()) {
+                translations.set(i, text);
+                continue;
+            }
+            nonBlank.add(i);
+            String cached = (cache == null) ? null : cache.get(text, sourceLanguage, targetLanguage);
+            if (cached != null) {
+                translations.set(i, cached);
+            }
+            else if (sent.putIfAbsent(TranslationCache.normalize(text), i) == null) {
+                toSend.add(i);
+            }
+        }
+
+        TranslationBatcher batcher = this.batcher;
+        List<List<Integer>> batches = batches(texts, toSend);
+        List<CompletableFuture<Void>> sending = new ArrayList<>();
+        if (batcher != null) {
+            // requests are made (and counted) by the batcher, along with other callers' texts
+            for (int i : toSend) {
+                sending.add(batcher.translate(texts.get(i), sourceLanguage, targetLanguage).thenAccept(escaped ->
+                        translations.set(i, Parser.unescapeEntities(escaped, false))));
+            }
+        }
+        else {
+            for (List<Integer> batch : batches) {
+                sending.add(translateBatch(texts, batch, translations, sourceLanguage, targetLanguage));
+            }
+        }
+        return CompletableFuture.allOf(sending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (int i : toSend) {
+                if (cache != null) {
+                    cache.put(texts.get(i), sourceLanguage, targetLanguage, translations.get(i));
+                }
+            }
+            for (int i = 0; i < texts.size(); i++) {
+                if (translations.get(i) == null) {
+                    translations.set(i, translations.get(sent.get(TranslationCache.normalize(texts.get(i)))));
+                }
+            }
+
+            if (cache != null) {
+                cache.recordRequests(batcher != null ? 0 : batches.size(), batches(texts, nonBlank).size() - batches.size());
+            }
+            return translations;
+        });
+    }
+
+    /**
+     * Split the given texts into requests within the API's limits, keeping their order.
+     */
+    private static List<List<Integer>> batches(List<String> texts, List<Integer> indices) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        int batchChars = 0;
+        for (int i : indices) {
+            int length = texts.get(i).length();
+            if ( ! batch.isEmpty() &&
+                    (batch.size() == MAX_STRINGS_PER_REQUEST || batchChars + length > MAX_CHARS_PER_REQUEST) ) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchChars = 0;
+            }
+            batch.add(i);
+            batchChars += length;
+        }
+        if ( ! batch.isEmpty() ) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private CompletableFuture<Void> translateBatch(List<String> texts, List<Integer> batch, List<String> translations,
+                                                  String sourceLanguage, String targetLanguage) {
+        List<String> request = new ArrayList<>();
+        for (int i : batch) {
+            request.add(texts.get(i));
+        }
+        return send(request, sourceLanguage, targetLanguage).thenAccept(escaped -> {
+            for (int k = 0; k < batch.size(); k++) {
+                translations.set(batch.get(k), Parser.unescapeEntities(escaped.get(k), false));
+            }
+        });
+    }
+
+    /**
+     * One request, made as setRemoteCalls says, every try waiting its turn with the rate limiter, if any.
+     */
+    private CompletableFuture<List<String>> send(List<String> texts, String sourceLanguage, String targetLanguage) {
+        AdaptiveRateLimiter limiter = this.rateLimiter;
+        return calls.call(() -> {
+            if (limiter == null) {
+                return requestTranslations(texts, sourceLanguage, targetLanguage);
+            }
+            try {
+                List<String> escaped = requestTranslations(texts, sourceLanguage, targetLanguage);
+                limiter.succeeded();
+                return escaped;
+            } catch (RuntimeException e) {
+                // a try we gave up on (timed out) isn't the service pushing back, whatever it failed with
+                if (AdaptiveRateLimiter.isPushBack(e) && ! Thread.currentThread().isInterrupted()) {
+                    Metrics.count("translate.pushedBack", 1);
+                    limiter.pushedBack();
+                }
+                throw e;
+            }
+        }, limiter);
+    }
+
+    /**
+     * Send as the batcher says, counting requests in the cache's stats.
+     */
+    private CompletableFuture<List<String>> sendBatched(List<String> texts, String sourceLanguage, String targetLanguage) {
+        TranslationCache cache = this.cache;
+        if (cache != null) {
+            cache.recordRequests(1, 0);
+        }
+        return send(texts, sourceLanguage, targetLanguage);
+    }
+
+    /**
+     * One call to the translation backend.
+     *
+     * @return translations as the API returns them (HTML escaped), in the same order as texts
+     */
+    protected List<String> requestTranslations(List<String> texts, String sourceLanguage, String targetLanguage) {
+        return this.backend.translate(texts, sourceLanguage, targetLanguage);
+    }
+
+    /**
+     * @return backend sending every request to the Translation API through the client
+     */
+    private static TranslationBackend googleBackend(Translate translationEngine) {
+        return (texts, sourceLanguage, targetLanguage) -> {
+            List<Translation> translations = translationEngine.translate(
+                    texts,
+                    TranslateOption.sourceLanguage(sourceLanguage),
+                    TranslateOption.targetLanguage(targetLanguage)
+            );
+            List<String> escapedTexts = new ArrayList<>();
+            for (Translation translation : translations) {
+                escapedTexts.add(translation.getTranslatedText());
+            }
+            return escapedTexts;
+        };
     }
 
     public String translateJapaneseToEnglish(String japaneseText) {
         return translate(japaneseText, "ja", "en");
     }
 
+    public List<String> translateJapaneseToEnglish(List<String> japaneseTexts) {
+        return translate(japaneseTexts, "ja", "en");
+    }
+
     public Translator() {
-        this.translationEngine = TranslateOptions.getDefaultInstance().getService();
+        this(TranslateOptions.getDefaultInstance().getService());
+    }
+
+    public Translator(Translate translationEngine) {
+        this(googleBackend(translationEngine));
+    }
+
+    /**
+     * @param backend where translation requests go, eg. a SyntheticTranslationBackend to run offline
+     */
+    public Translator(TranslationBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * @param cache consulted before, and filled after, every request; null for none
+     */
+    public void setCache(TranslationCache cache) {
+        this.cache = cache;
+    }
+
+    public TranslationCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @param calls how requests are made: how many at once, how long they may take, how often they are retried.
+     *              By default they're made once each, in the calling thread.
+     */
+    public void setRemoteCalls(RemoteCalls calls) {
+        this.calls = calls;
+    }
+
+    /**
+     * @param rateLimiter paces requests, slowing down when the API pushes back; null for none
+     */
+    public void setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public AdaptiveRateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Send texts from all calls to translate together (see TranslationBatcher): texts asked for
+     * within windowMillis of each other go out in the same request, and a text already
+     * on its way isn't sent again.
+     *
+     * @param windowMillis negative for every call to send its texts by itself, as it does by default
+     */
+    public void setBatchWindow(long windowMillis) {
+        this.batcher = (windowMillis < 0) ? null : new TranslationBatcher(windowMillis, this::sendBatched);
     }
 
     public static void main(String... args) throws Exception {
@@ -35,5 +270,8 @@ public class Translator {
         String text = translator.translateJapaneseToEnglish(japaneseText);
         System.out.printf("Text: %s%n", japaneseText);
         System.out.printf("Translation: %s%n", text);
+
+        List<String> texts = translator.translateJapaneseToEnglish(Arrays.asList(japaneseText, "こんにちは"));
+        System.out.printf("Translations: %s%n", texts);
     }
-}
\ No newline at end of file
+}
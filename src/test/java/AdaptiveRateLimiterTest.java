@@ -0,0 +1,85 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+
+    /**
+     * Test that the rate halves when the service pushes back, at most once a second,
+     * goes back up as requests succeed, and stays within its bounds.
+     */
+    @Test
+    public void testAdapt() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(8, 1, 10);
+        limiter.pushedBack();
+        assertEquals(4, limiter.getRate(), 1e-9);
+        limiter.pushedBack();
+        assertEquals(4, limiter.getRate(), 1e-9);
+
+        limiter.succeeded();
+        assertEquals(4.25, limiter.getRate(), 1e-9);
+        for (int i = 0; i < 1000; i++) {
+            limiter.succeeded();
+        }
+        assertEquals(10, limiter.getRate(), 1e-9);
+    }
+
+    /**
+     * Test that requests beyond the bucket wait their turn at the rate.
+     */
+    @Test
+    public void testPace() throws Exception {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(20, 20, 20);
+        long started = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        // one token to start with, then 10 more at 20 a second
+        assertTrue("took " + seconds, seconds >= 0.45 && seconds < 2);
+    }
+
+    /**
+     * Test which failures count as the service pushing back.
+     */
+    @Test
+    public void testIsPushBack() {
+        assertTrue(AdaptiveRateLimiter.isPushBack(new ServiceException(429, "too many")));
+        assertTrue(AdaptiveRateLimiter.isPushBack(new ServiceException(503, "unavailable")));
+        assertFalse(AdaptiveRateLimiter.isPushBack(new ServiceException(500, "broken")));
+        assertFalse(AdaptiveRateLimiter.isPushBack(new IllegalStateException()));
+        assertFalse(AdaptiveRateLimiter.isPushBack(new CancellationException()));
+    }
+
+    /**
+     * Test that calls waiting their turn longer than their timeout still go out, one at a time
+     * at the rate, and every try takes only one token.
+     */
+    @Test(timeout = 10000)
+    public void testPacedCalls() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 10, 10);
+        try (RemoteCalls calls = new RemoteCalls("test", 4, 50, 1)) {
+            long started = System.nanoTime();
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                int n = i;
+                results.add(calls.call(() -> n, limiter));
+            }
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i, (int) results.get(i).join());
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            // one token to start with, then 5 more at 10 a second
+            assertTrue("took " + seconds, seconds >= 0.45 && seconds < 2);
+        }
+        // the next token is a tenth of a second off, not one per try that timed out
+        assertTrue(limiter.reserve() <= 100_000_000);
+    }
+}
@@ -0,0 +1,157 @@
+import com.google.cloud.vision.v1.BoundingPoly;
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.Vertex;
+import com.google.cloud.vision.v1.Word;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BoxClusteringTest {
+    private static final int INF = (1 << 30);
+    private static final int MARGIN = 10;
+
+    /**
+     * The pairwise join joinAllParagraphs used before BoxClustering, without bubbles:
+     * sort by the x of the upper right vertex, then join the first (i, j) pair where
+     * a vertex of j lies inside i's aligned box grown by the margin, until there's none.
+     */
+    private static List<Paragraph> pairwiseJoin(List<Paragraph> paragraphs) {
+        paragraphs = new ArrayList<>(paragraphs);
+        Collections.sort(paragraphs, new Comparator<Paragraph>() {
+            @Override
+            public int compare(Paragraph o1, Paragraph o2) {
+                return Integer.compare(bounds(o1.getBoundingBox())[2], bounds(o2.getBoundingBox())[2]);
+            }
+        });
+
+        List<Paragraph> paras = new ArrayList<>();
+        for (Paragraph para : paragraphs) {
+            int[] b = bounds(para.getBoundingBox());
+            paras.add(para.toBuilder().setBoundingBox(box(b[0], b[1], b[2], b[3])).build());
+        }
+
+        boolean joined;
+        do {
+            joined = false;
+            for (int i = 0; i < paras.size() && ! joined; i++) {
+                for (int j = i + 1; j < paras.size(); j++) {
+                    Paragraph p1 = paras.get(i);
+                    Paragraph p2 = paras.get(j);
+                    if ( ! vertexInside(p1.getBoundingBox(), p2.getBoundingBox()) ) {
+                        continue;
+                    }
+                    List<Vertex> vertices = new ArrayList<>(p1.getBoundingBox().getVerticesList());
+                    vertices.addAll(p2.getBoundingBox().getVerticesList());
+                    int[] b = bounds(BoundingPoly.newBuilder().addAllVertices(vertices).build());
+                    Paragraph both = Paragraph.newBuilder()
+                            .addAllWords(p1.getWordsList())
+                            .addAllWords(p2.getWordsList())
+                            .setBoundingBox(box(b[0], b[1], b[2], b[3]))
+                            .build();
+                    paras.remove(j);
+                    paras.set(i, both);
+                    joined = true;
+                    break;
+                }
+            }
+        } while (joined);
+        return paras;
+    }
+
+    /**
+     * @return {xmin, ymin, xmax, ymax} of the vertices, (INF, INF, -INF, -INF) for none
+     */
+    private static int[] bounds(BoundingPoly poly) {
+        int[] b = new int[]{INF, INF, -INF, -INF};
+        for (Vertex v : poly.getVerticesList()) {
+            b[0] = Math.min(b[0], v.getX());
+            b[1] = Math.min(b[1], v.getY());
+            b[2] = Math.max(b[2], v.getX());
+            b[3] = Math.max(b[3], v.getY());
+        }
+        return b;
+    }
+
+    private static boolean vertexInside(BoundingPoly p1, BoundingPoly p2) {
+        int[] b = bounds(p1);
+        for (Vertex v : p2.getVerticesList()) {
+            if (v.getX() >= b[0] - MARGIN && v.getX() <= b[2] + MARGIN
+                    && v.getY() >= b[1] - MARGIN && v.getY() <= b[3] + MARGIN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BoundingPoly box(int xmin, int ymin, int xmax, int ymax) {
+        return BoundingPoly.newBuilder()
+                .addVertices(Vertex.newBuilder().setX(xmin).setY(ymax))
+                .addVertices(Vertex.newBuilder().setX(xmax).setY(ymax))
+                .addVertices(Vertex.newBuilder().setX(xmax).setY(ymin))
+                .addVertices(Vertex.newBuilder().setX(xmin).setY(ymin))
+                .build();
+    }
+
+    /**
+     * Paragraph with a single word naming it, and a polygon of 0 to 4 random vertices
+     * somewhere on a small page, so many overlap.
+     */
+    private static Paragraph randomParagraph(Random random, int id) {
+        BoundingPoly.Builder poly = BoundingPoly.newBuilder();
+        int vertices = random.nextInt(10) == 0 ? random.nextInt(2) : 4;
+        int x = random.nextInt(400), y = random.nextInt(400);
+        for (int v = 0; v < vertices; v++) {
+            poly.addVertices(Vertex.newBuilder().setX(x + random.nextInt(60)).setY(y + random.nextInt(60)));
+        }
+        Word word = Word.newBuilder().addSymbols(Symbol.newBuilder().setText("p" + id)).build();
+        return Paragraph.newBuilder().setBoundingBox(poly).addWords(word).build();
+    }
+
+    /**
+     * Test that joinAllParagraphs, through BoxClustering, joins exactly as the pairwise join did,
+     * on random pages including no paragraphs, empty and 1-vertex polygons, and many overlaps
+     */
+    @Test
+    public void testSameAsPairwiseJoin() {
+        TextRecognizerGoogle recognizer = new TextRecognizerGoogle(Language.JPN);
+        Random random = new Random(6);
+        for (int round = 0; round < 500; round++) {
+            List<Paragraph> paragraphs = new ArrayList<>();
+            int n = random.nextInt(40);
+            for (int i = 0; i < n; i++) {
+                paragraphs.add(randomParagraph(random, i));
+            }
+            assertEquals("round " + round, pairwiseJoin(paragraphs), recognizer.joinAllParagraphs(paragraphs));
+        }
+    }
+
+    /**
+     * Test that boxes within the margin are joined, in order, along with boxes sharing a label
+     */
+    @Test
+    public void testRun() {
+        int[] xmin = {0, 100, 15, 300};
+        int[] ymin = {0, 0, 0, 300};
+        int[] xmax = {5, 110, 20, 310};
+        int[] ymax = {5, 10, 5, 310};
+        int[] labels = {0, 7, 0, 7};
+        BoxClustering clustering = new BoxClustering(xmin, ymin, xmax, ymax, labels, MARGIN);
+        List<int[]> groups = clustering.run();
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).length);
+        assertEquals(0, groups.get(0)[0]);
+        assertEquals(2, groups.get(0)[1]);
+        assertEquals(1, groups.get(1)[0]);
+        assertEquals(3, groups.get(1)[1]);
+        int[] b = clustering.bounds(1);
+        assertEquals(100, b[0]);
+        assertEquals(310, b[3]);
+    }
+}
@@ -0,0 +1,84 @@
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.Paragraph;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BubbleRecognizerTest {
+
+    /**
+     * Test that only the bubbles are sent, in a single request, and that what is read
+     * in them is placed back on the page
+     */
+    @Test
+    public void testGetParagraphsInBubbles() throws Exception {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(Color.BLACK);
+        g.fillRect(5, 5, 190, 90);
+        g.setColor(Color.WHITE);
+        g.fillRect(20, 20, 40, 30);
+        g.fillRect(120, 20, 50, 50);
+        g.dispose();
+
+        FakeImageAnnotatorStub stub = new FakeImageAnnotatorStub();
+        List<Paragraph> paragraphs;
+        try (TextRecognizerGoogle google =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            BubbleRecognizer recognizer = new BubbleRecognizer(google);
+            paragraphs = recognizer.getParagraphsInBubbles(img, new BubbleSegmentation(img));
+        }
+
+        assertEquals(1, stub.requests.size());
+        assertEquals(2, stub.requests.get(0).getRequestsCount());
+        assertEquals(2, paragraphs.size());
+        Rectangle first = Rectangle.fromBoundingPoly(paragraphs.get(0).getBoundingBox());
+        Rectangle second = Rectangle.fromBoundingPoly(paragraphs.get(1).getBoundingBox());
+        assertEquals(16, first.xmin());
+        assertEquals(16, first.ymin());
+        assertEquals(116, second.xmin());
+        assertEquals(16, second.ymin());
+    }
+
+    /**
+     * Test that a bubble inside another, and bubbles whose padded regions touch,
+     * are read once, as one region
+     */
+    @Test
+    public void testNestedAndAdjacentBubbles() throws Exception {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(Color.WHITE);
+        // a bubble with a dark frame inside, and another bubble inside that
+        g.fillRect(10, 10, 60, 60);
+        g.setColor(Color.BLACK);
+        g.fillRect(20, 20, 40, 40);
+        g.setColor(Color.WHITE);
+        g.fillRect(30, 30, 20, 20);
+        // two bubbles 4 pixels apart
+        g.fillRect(100, 10, 30, 30);
+        g.fillRect(134, 10, 30, 30);
+        g.dispose();
+
+        FakeImageAnnotatorStub stub = new FakeImageAnnotatorStub();
+        List<Paragraph> paragraphs;
+        try (TextRecognizerGoogle google =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            BubbleRecognizer recognizer = new BubbleRecognizer(google);
+            BubbleSegmentation segmentation = new BubbleSegmentation(img);
+            assertEquals(4, segmentation.getBubbles().size());
+            paragraphs = recognizer.getParagraphsInBubbles(img, segmentation);
+        }
+
+        assertEquals(2, stub.requests.get(0).getRequestsCount());
+        assertEquals(2, paragraphs.size());
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BubbleSegmentationTest {
+    private BubbleSegmentation segmentation;
+
+    /**
+     * White page margin around a black panel holding two white bubbles,
+     * one of them with a black "line of text" in it.
+     */
+    @Before
+    public void setup() {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(Color.BLACK);
+        g.fillRect(5, 5, 190, 90);
+        g.setColor(Color.WHITE);
+        g.fillOval(10, 10, 80, 60);
+        g.fillRect(120, 20, 50, 50);
+        g.setColor(Color.BLACK);
+        g.fillRect(140, 30, 5, 30);
+        g.dispose();
+        segmentation = new BubbleSegmentation(img);
+    }
+
+    /**
+     * Test that
+     *  - the page margin is a component, but not a bubble
+     *  - both bubbles are found, with the right bounds
+     *  - text does not split a bubble
+     */
+    @Test
+    public void testBubbles() {
+        assertTrue(segmentation.getLabel(0, 0) != 0);
+        assertTrue( ! segmentation.isBubble(segmentation.getLabel(0, 0)) );
+        assertEquals(0, segmentation.getLabel(7, 7));
+
+        assertEquals(2, segmentation.getBubbles().size());
+        BubbleSegmentation.Bubble square = segmentation.getBubble(segmentation.getLabel(121, 21));
+        assertEquals(120, square.bounds.xmin());
+        assertEquals(20, square.bounds.ymin());
+        assertEquals(169, square.bounds.xmax());
+        assertEquals(69, square.bounds.ymax());
+        assertEquals(50 * 50 - 5 * 30, square.pixelCount);
+    }
+
+    /**
+     * Test bubbleAt(Rectangle) and getMaximalRectangle(Rectangle)
+     */
+    @Test
+    public void testBubbleAt() {
+        int oval = segmentation.bubbleAt(new Rectangle(40, 30, 60, 50));
+        int square = segmentation.bubbleAt(new Rectangle(138, 28, 147, 62));
+        assertTrue(oval != 0);
+        assertTrue(square != 0);
+        assertNotEquals(oval, square);
+        assertEquals(0, segmentation.bubbleAt(new Rectangle(2, 2, 4, 4)));
+
+        Rectangle text = new Rectangle(138, 28, 147, 62);
+        assertEquals(
+                new Rectangle(120, 20, 169, 69).area(),
+                segmentation.getMaximalRectangle(text).get().area()
+        );
+    }
+}
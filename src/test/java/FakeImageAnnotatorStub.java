@@ -0,0 +1,95 @@
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.vision.v1.*;
+import com.google.cloud.vision.v1.stub.ImageAnnotatorStub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the Vision API, for building an ImageAnnotatorClient that never leaves the machine:
+ *  ImageAnnotatorClient.create(new FakeImageAnnotatorStub())
+ *
+ * Every image gets a single paragraph holding a single word: the image's bytes, as text.
+ * Images whose bytes start with "error" get an error response instead.
+ */
+public class FakeImageAnnotatorStub extends ImageAnnotatorStub {
+    public final List<BatchAnnotateImagesRequest> requests = new ArrayList<>();
+    private boolean shutdown = false;
+
+    public static AnnotateImageResponse respond(AnnotateImageRequest request) {
+        String text = request.getImage().getContent().toStringUtf8();
+        if (text.startsWith("error")) {
+            return AnnotateImageResponse.newBuilder()
+                    .setError(com.google.rpc.Status.newBuilder().setCode(3).setMessage(text))
+                    .build();
+        }
+
+        Word.Builder word = Word.newBuilder();
+        for (char c : text.toCharArray()) {
+            word.addSymbols(Symbol.newBuilder().setText("" + c));
+        }
+        Paragraph paragraph = Paragraph.newBuilder()
+                .setBoundingBox(BoundingPoly.newBuilder()
+                        .addVertices(Vertex.newBuilder().setX(0).setY(0))
+                        .addVertices(Vertex.newBuilder().setX(10).setY(20)))
+                .addWords(word)
+                .build();
+        return AnnotateImageResponse.newBuilder()
+                .setFullTextAnnotation(TextAnnotation.newBuilder()
+                        .addPages(Page.newBuilder()
+                                .addBlocks(Block.newBuilder().addParagraphs(paragraph))))
+                .build();
+    }
+
+    @Override
+    public UnaryCallable<BatchAnnotateImagesRequest, BatchAnnotateImagesResponse> batchAnnotateImagesCallable() {
+        return new UnaryCallable<BatchAnnotateImagesRequest, BatchAnnotateImagesResponse>() {
+            @Override
+            public ApiFuture<BatchAnnotateImagesResponse> futureCall(
+                    BatchAnnotateImagesRequest request, ApiCallContext context) {
+                synchronized (FakeImageAnnotatorStub.this) {
+                    requests.add(request);
+                }
+                BatchAnnotateImagesResponse.Builder response = BatchAnnotateImagesResponse.newBuilder();
+                for (AnnotateImageRequest r : request.getRequestsList()) {
+                    response.addResponses(respond(r));
+                }
+                return ApiFutures.immediateFuture(response.build());
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        shutdown = true;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public void shutdownNow() {
+        shutdown = true;
+    }
+
+    @Override
+    public boolean awaitTermination(long duration, TimeUnit unit) {
+        return shutdown;
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class FontRegistryTest {
+
+    /**
+     * Test that fonts load from Fonts/, and that derived sizes and their metrics are
+     * the same as deriving and measuring directly, only made once
+     */
+    @Test
+    public void testDeriveAndMeasure() {
+        FontRegistry fonts = FontRegistry.getShared();
+        Font font = fonts.getFont("animeace");
+        assertNotNull(font);
+        assertNotNull(fonts.getFont("animeace_b"));
+
+        Font derived = fonts.derive(font, Font.PLAIN, 17);
+        assertEquals(font.deriveFont(Font.PLAIN, 17), derived);
+        assertSame(derived, fonts.derive(fonts.derive(font, Font.PLAIN, 40), Font.PLAIN, 17));
+
+        Graphics2D g2 = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+        FontMetrics metrics = fonts.getMetrics(g2, derived);
+        assertEquals(g2.getFontMetrics(derived).stringWidth("Ba-dump!?"), metrics.stringWidth("Ba-dump!?"));
+        assertSame(metrics, fonts.getMetrics(g2, derived));
+        g2.dispose();
+    }
+}
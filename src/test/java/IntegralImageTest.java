@@ -0,0 +1,69 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntegralImageTest {
+    private BufferedImage img;
+    private IntegralImage stats;
+
+    @Before
+    public void setup() {
+        img = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int x = 0; x < img.getWidth(); x++) {
+            for (int y = 0; y < img.getHeight(); y++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        stats = new IntegralImage(new PixelReader(img));
+    }
+
+    /**
+     * Test averageRGB and colorStdev against summing every pixel directly, for
+     *  - single pixels
+     *  - single rows / columns
+     *  - rectangles touching the image border
+     *  - the whole image
+     */
+    @Test
+    public void testMatchesBruteForce() {
+        int[][] boxes = new int[][]{
+                {0, 0, 0, 0},
+                {39, 29, 39, 29},
+                {5, 7, 30, 7},
+                {12, 0, 12, 29},
+                {3, 4, 17, 22},
+                {0, 0, 39, 29}
+        };
+        for (int[] b : boxes) {
+            int R = 0, G = 0, B = 0, n = 0;
+            for (int x = b[0]; x <= b[2]; x++) {
+                for (int y = b[1]; y <= b[3]; y++) {
+                    int rgb = img.getRGB(x, y);
+                    R += PixelReader.red(rgb);
+                    G += PixelReader.green(rgb);
+                    B += PixelReader.blue(rgb);
+                    n++;
+                }
+            }
+            int avg = ((R / n) << 16) | ((G / n) << 8) | (B / n);
+            assertEquals(avg, stats.averageRGB(b[0], b[1], b[2], b[3]));
+
+            double sum = 0;
+            for (int x = b[0]; x <= b[2]; x++) {
+                for (int y = b[1]; y <= b[3]; y++) {
+                    int rgb = img.getRGB(x, y);
+                    sum += Math.pow(PixelReader.red(rgb) - PixelReader.red(avg), 2);
+                    sum += Math.pow(PixelReader.green(rgb) - PixelReader.green(avg), 2);
+                    sum += Math.pow(PixelReader.blue(rgb) - PixelReader.blue(avg), 2);
+                }
+            }
+            float stdev = (float)Math.sqrt(sum / (3 * n));
+            assertEquals(stdev, stats.colorStdev(b[0], b[1], b[2], b[3]), 1e-3);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @After
+    public void disable() {
+        Metrics.setEnabled(false);
+        Metrics.enter(null);
+    }
+
+    /**
+     * Test that nothing is recorded, and the clock isn't read, while metrics are off
+     */
+    @Test
+    public void testDisabled() {
+        long start = Metrics.start();
+        assertEquals(0, start);
+        Metrics.stop("test.disabled", start);
+        Metrics.count("test.disabled", 3);
+        assertNull(Metrics.getShared().getTimer("test.disabled"));
+        assertEquals(0, Metrics.getShared().getCount("test.disabled"));
+    }
+
+    /**
+     * Test that what a thread records goes into the shared registry and the one it entered
+     */
+    @Test
+    public void testScopes() {
+        Metrics.setEnabled(true);
+        Metrics page = new Metrics();
+        Metrics.count("test.scoped", 1);
+        Metrics previous = Metrics.enter(page);
+        Metrics.count("test.scoped", 2);
+        Metrics.stop("test.scoped", Metrics.start());
+        Metrics.enter(previous);
+        Metrics.count("test.scoped", 4);
+
+        assertEquals(7, Metrics.getShared().getCount("test.scoped"));
+        assertEquals(2, page.getCount("test.scoped"));
+        assertEquals(1, page.getTimer("test.scoped").getCount());
+    }
+
+    /**
+     * Test histogram buckets and both export formats
+     */
+    @Test
+    public void testExport() {
+        Metrics.setEnabled(true);
+        Metrics page = new Metrics();
+        Metrics previous = Metrics.enter(page);
+        for (long v : new long[] {1, 2, 3, 4, 5, 20}) {
+            Metrics.observe("render.fontSize", v);
+        }
+        Metrics.count("ocr.imagesSent", 2);
+        Metrics.enter(previous);
+
+        Metrics.Histogram h = page.getHistogram("render.fontSize");
+        assertEquals(6, h.getCount());
+        assertEquals(35, h.getSum());
+        assertEquals(20, h.getMax());
+        assertEquals(1, h.countAtMost(0));
+        assertEquals(4, h.countAtMost(2));
+        assertEquals(5, h.countAtMost(3));
+        assertEquals(6, h.countAtMost(5));
+
+        assertEquals("{\"page\":\"a \\\"b\\\".jpeg\",\"timers\":{},\"counters\":{\"ocr.imagesSent\":2}," +
+                        "\"histograms\":{\"render.fontSize\":{\"count\":6,\"sum\":35,\"max\":20}}}",
+                page.toJson("a \"b\".jpeg"));
+
+        String prometheus = page.toPrometheus();
+        assertTrue(prometheus.contains("# TYPE manga_ocr_imagesSent_total counter\nmanga_ocr_imagesSent_total 2\n"));
+        assertTrue(prometheus.contains("manga_render_fontSize_bucket{le=\"4.0\"} 4\n"));
+        assertTrue(prometheus.contains("manga_render_fontSize_bucket{le=\"+Inf\"} 6\n"));
+        assertTrue(prometheus.contains("manga_render_fontSize_count 6\n"));
+    }
+}
@@ -0,0 +1,54 @@
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.Word;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OcrCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Paragraph paragraph(String text) {
+        return Paragraph.newBuilder()
+                .addWords(Word.newBuilder().addSymbols(Symbol.newBuilder().setText(text)))
+                .build();
+    }
+
+    /**
+     * Test that entries survive a restart, and that the least recently used go first
+     * once the cache is over its size
+     */
+    @Test
+    public void testPutGetEvict() throws Exception {
+        List<Paragraph> page = Collections.singletonList(paragraph("一"));
+        List<Paragraph> bigPage = Arrays.asList(paragraph("一"), paragraph("二"), paragraph("三"));
+        OcrCache cache = new OcrCache(folder.getRoot(), 1 << 20);
+        cache.put("a", page);
+        cache.put("b", bigPage);
+        cache.put("empty", Collections.<Paragraph>emptyList());
+        long bytes = cache.getBytes();
+
+        cache = new OcrCache(folder.getRoot(), bytes);
+        assertEquals(bytes, cache.getBytes());
+        assertEquals(page, cache.get("a"));
+        assertEquals(bigPage, cache.get("b"));
+        assertEquals(Collections.<Paragraph>emptyList(), cache.get("empty"));
+        assertNull(cache.get("c"));
+
+        new File(folder.getRoot(), "a.pb").setLastModified(2000000000000L);
+        new File(folder.getRoot(), "b.pb").setLastModified(1000000000000L);
+        cache.put("c", page);
+        assertEquals(page, cache.get("a"));
+        assertEquals(page, cache.get("c"));
+        assertNull(cache.get("b"));
+    }
+}
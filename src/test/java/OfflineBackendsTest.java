@@ -0,0 +1,119 @@
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Vertex;
+import com.google.protobuf.ByteString;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OfflineBackendsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteString png(int width, int height, int rgb) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, rgb);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return ByteString.copyFrom(out.toByteArray());
+    }
+
+    /**
+     * Test that synthetic OCR gives the same paragraphs every time for the same image,
+     * different ones for a different image, all inside the image.
+     */
+    @Test
+    public void testSyntheticOcr() throws Exception {
+        ByteString a = png(300, 400, 0), b = png(300, 400, 1);
+        TextRecognizerGoogle recognizer = new TextRecognizerGoogle(Language.JPN,
+                new SyntheticOcrBackend(SimulatedService.instant()));
+        List<List<Paragraph>> first = recognizer.detectDocumentTextFromBytes(Arrays.asList(a, b));
+        List<List<Paragraph>> again = recognizer.detectDocumentTextFromBytes(Arrays.asList(a));
+
+        assertFalse(first.get(0).isEmpty());
+        assertEquals(first.get(0), again.get(0));
+        assertNotEquals(first.get(0), first.get(1));
+        for (Paragraph p : first.get(0)) {
+            for (Vertex v : p.getBoundingBox().getVerticesList()) {
+                assertTrue(v.toString(), v.getX() >= 0 && v.getX() < 300 && v.getY() >= 0 && v.getY() < 400);
+            }
+        }
+    }
+
+    /**
+     * Test that responses recorded from one backend replay the same, and that images
+     * not recorded go to the fallback.
+     */
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File dir = folder.newFolder("responses");
+        ByteString recorded = png(200, 300, 0), other = png(200, 300, 1);
+        List<List<Paragraph>> live;
+        try (TextRecognizerGoogle recognizer = new TextRecognizerGoogle(Language.JPN,
+                RecordedOcrBackend.recording(new SyntheticOcrBackend(SimulatedService.instant()), dir))) {
+            live = recognizer.detectDocumentTextFromBytes(Arrays.asList(recorded));
+        }
+        assertEquals(1, dir.listFiles().length);
+
+        TextRecognizerGoogle replaying = new TextRecognizerGoogle(Language.JPN,
+                new RecordedOcrBackend(dir, null, SimulatedService.instant()));
+        List<List<Paragraph>> replayed = replaying.detectDocumentTextFromBytes(Arrays.asList(recorded, other));
+        assertEquals(live.get(0), replayed.get(0));
+        assertTrue(replayed.get(1).isEmpty());
+
+        TextRecognizerGoogle falling = new TextRecognizerGoogle(Language.JPN,
+                new RecordedOcrBackend(dir, new SyntheticOcrBackend(SimulatedService.instant()), SimulatedService.instant()));
+        assertFalse(falling.detectDocumentTextFromBytes(Arrays.asList(other)).get(0).isEmpty());
+    }
+
+    /**
+     * Test that synthetic translations are repeatable and come back unescaped.
+     */
+    @Test
+    public void testSyntheticTranslation() {
+        Translator translator = new Translator(new SyntheticTranslationBackend(SimulatedService.instant()));
+        List<String> texts = Arrays.asList("これは何ですか？", "だがし", "これは何ですか？");
+        List<String> translations = translator.translateJapaneseToEnglish(texts);
+
+        assertEquals(translations.get(0), translations.get(2));
+        assertTrue(translations.get(0).endsWith("?"));
+        assertEquals(SyntheticTranslationBackend.translate("だがし", "ja", "en").replace("&#39;", "'"),
+                translations.get(1));
+        for (String translation : translations) {
+            assertFalse(translation, translation.contains("&"));
+        }
+    }
+
+    /**
+     * Test that a simulated service takes its latency and fails with its error code.
+     */
+    @Test
+    public void testSimulatedService() {
+        SimulatedService slow = new SimulatedService(20, 0, 0, 503, 1);
+        long started = System.nanoTime();
+        slow.call("test");
+        assertTrue(System.nanoTime() - started >= 20_000_000L);
+
+        SimulatedService failing = new SimulatedService(0, 0, 1, 429, 1);
+        try {
+            failing.call("test");
+            fail("should have failed");
+        } catch (ServiceException e) {
+            assertEquals(429, e.getCode());
+            assertTrue(e.isRetryable());
+        }
+    }
+}
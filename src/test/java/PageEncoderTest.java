@@ -0,0 +1,98 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PageEncoderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that pages encoded from many threads at once all come back as written
+     */
+    @Test
+    public void testParallelPng() throws Exception {
+        BufferedImage page = ImageIO.read(new File("./random_manga_images/easy/hanebado.jpeg"));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<File>> written = new ArrayList<>();
+        try (PageEncoder encoder = new PageEncoder("png")) {
+            for (int i = 0; i < 12; i++) {
+                File f = new File(folder.getRoot(), i + ".png");
+                written.add(pool.submit(() -> {
+                    encoder.write(page, f);
+                    return f;
+                }));
+            }
+            for (Future<File> f : written) {
+                BufferedImage read = ImageIO.read(f.get());
+                assertEquals(page.getRGB(100, 200), read.getRGB(100, 200));
+                assertEquals(page.getWidth(), read.getWidth());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that JPEG quality is applied, and that a page with transparency can still be written as JPEG
+     */
+    @Test
+    public void testJpegQuality() throws Exception {
+        BufferedImage page = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = page.createGraphics();
+        g2.setPaint(new GradientPaint(0, 0, Color.RED, 200, 100, Color.BLUE));
+        g2.fillOval(10, 10, 180, 80);
+        g2.dispose();
+
+        File low = folder.newFile("low.jpeg");
+        File high = folder.newFile("high.jpeg");
+        try (PageEncoder encoder = new PageEncoder("jpeg", 0.1f)) {
+            encoder.write(page, low);
+        }
+        try (PageEncoder encoder = new PageEncoder("jpeg", 1f)) {
+            encoder.write(page, high);
+        }
+        assertNotNull(ImageIO.read(low));
+        assertEquals(Color.WHITE.getRGB(), ImageIO.read(high).getRGB(1, 1));
+        assertTrue(low.length() < high.length());
+    }
+
+    /**
+     * Test that transparency is kept where the format stores it, and flattened away everywhere else,
+     * whatever the writer would accept
+     */
+    @Test
+    public void testStoresAlpha() throws Exception {
+        assertTrue(PageEncoder.storesAlpha("png"));
+        assertTrue(PageEncoder.storesAlpha("PNG"));
+        assertFalse(PageEncoder.storesAlpha("jpeg"));
+        assertFalse(PageEncoder.storesAlpha("jpg"));
+        assertFalse(PageEncoder.storesAlpha("bmp"));
+
+        BufferedImage page = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        File png = folder.newFile("page.png");
+        try (PageEncoder encoder = new PageEncoder("png")) {
+            encoder.write(page, png);
+        }
+        assertTrue(ImageIO.read(png).getColorModel().hasAlpha());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        new PageEncoder("no-such-format");
+    }
+}
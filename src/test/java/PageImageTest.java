@@ -0,0 +1,34 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PageImageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the bytes are the file's, and decode into the image that was written
+     */
+    @Test
+    public void testRead() throws Exception {
+        BufferedImage img = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(3, 4, 0x123456);
+        File f = new File(folder.getRoot(), "page.png");
+        ImageIO.write(img, "png", f);
+
+        PageImage page = PageImage.read(f.getPath());
+        assertArrayEquals(Files.readAllBytes(f.toPath()), page.getBytes().toByteArray());
+        BufferedImage decoded = page.getImage();
+        assertEquals(30, decoded.getWidth());
+        assertEquals(20, decoded.getHeight());
+        assertEquals(0x123456, decoded.getRGB(3, 4) & 0xffffff);
+    }
+}
@@ -0,0 +1,60 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PixelReaderTest {
+
+    private BufferedImage randomImage(int type) {
+        BufferedImage img = new BufferedImage(31, 17, type);
+        Random random = new Random(type);
+        for (int x = 0; x < img.getWidth(); x++) {
+            for (int y = 0; y < img.getHeight(); y++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private void assertMatchesGetRGB(BufferedImage img) {
+        PixelReader pixels = new PixelReader(img);
+        for (int x = 0; x < img.getWidth(); x++) {
+            for (int y = 0; y < img.getHeight(); y++) {
+                assertEquals(img.getRGB(x, y) & 0xFFFFFF, pixels.rgb(x, y));
+            }
+        }
+    }
+
+    /**
+     * Test that rgb(x, y) agrees with getRGB() for
+     *  - every raster layout we read directly
+     *  - a layout we fall back on getRGB() for
+     *  - sub-images, which share (and offset into) their parent's data buffer
+     */
+    @Test
+    public void testMatchesGetRGB() {
+        int[] types = new int[]{
+                BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR,
+                BufferedImage.TYPE_BYTE_GRAY,
+                BufferedImage.TYPE_USHORT_565_RGB
+        };
+        for (int type : types) {
+            BufferedImage img = randomImage(type);
+            assertMatchesGetRGB(img);
+            assertMatchesGetRGB(img.getSubimage(3, 5, 20, 10));
+        }
+    }
+
+    @Test
+    public void testSeesLaterWrites() {
+        BufferedImage img = new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR);
+        PixelReader pixels = new PixelReader(img);
+        img.setRGB(2, 1, 0x123456);
+        assertEquals(0x123456, pixels.rgb(2, 1));
+    }
+}
@@ -0,0 +1,180 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteCallsTest {
+
+    /**
+     * Test that retryable failures are retried until the call succeeds, and others aren't.
+     */
+    @Test
+    public void testRetry() {
+        try (RemoteCalls calls = new RemoteCalls("test", 2, 0, 3)) {
+            calls.setBackoff(1, 5);
+            AtomicInteger tries = new AtomicInteger();
+            CompletableFuture<String> flaky = calls.call(() -> {
+                if (tries.incrementAndGet() < 3) {
+                    throw new ServiceException(503, "unavailable");
+                }
+                return "ok";
+            });
+            assertEquals("ok", flaky.join());
+            assertEquals(3, tries.get());
+
+            tries.set(0);
+            try {
+                RemoteCalls.join(calls.call(() -> {
+                    tries.incrementAndGet();
+                    throw new ServiceException(400, "bad request");
+                }));
+                fail("should have failed");
+            } catch (ServiceException e) {
+                assertEquals(400, e.getCode());
+            }
+            assertEquals(1, tries.get());
+
+            tries.set(0);
+            try {
+                RemoteCalls.join(calls.call(() -> {
+                    tries.incrementAndGet();
+                    throw new ServiceException(429, "slow down");
+                }));
+                fail("should have failed");
+            } catch (ServiceException e) {
+                assertEquals(429, e.getCode());
+            }
+            assertEquals(3, tries.get());
+        }
+    }
+
+    /**
+     * Test that a call taking too long fails with a timeout, and is interrupted.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        try (RemoteCalls calls = new RemoteCalls("test", 1, 50, 1)) {
+            AtomicBoolean interrupted = new AtomicBoolean();
+            long started = System.nanoTime();
+            CompletableFuture<String> slow = calls.call(() -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                return "too late";
+            });
+            try {
+                slow.join();
+                fail("should have timed out");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(System.nanoTime() - started < 5_000_000_000L);
+
+            // the permit comes back once the interrupted call gives up
+            assertEquals("next", calls.call(() -> "next").join());
+            assertTrue(interrupted.get());
+        }
+    }
+
+    /**
+     * Test that no more calls run at once than allowed, and all of them run.
+     */
+    @Test
+    public void testMaxInFlight() {
+        try (RemoteCalls calls = new RemoteCalls("test", 3, 0, 1)) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger mostRunning = new AtomicInteger();
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                int n = i;
+                results.add(calls.call(() -> {
+                    mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return n * n;
+                }));
+            }
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i * i, (int) results.get(i).join());
+            }
+            assertTrue(mostRunning.get() <= 3);
+        }
+    }
+
+    /**
+     * Test that inline calls run in the calling thread.
+     */
+    @Test
+    public void testInline() {
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Boolean> sameThread = RemoteCalls.inline("test").call(() -> Thread.currentThread() == caller);
+        assertTrue(sameThread.isDone());
+        assertTrue(sameThread.join());
+    }
+
+    /**
+     * Test that a call throwing an Error fails with it, isn't retried, and gives back its permit.
+     */
+    @Test(timeout = 10000)
+    public void testError() {
+        try (RemoteCalls calls = new RemoteCalls("test", 1, 0, 3)) {
+            AtomicInteger tries = new AtomicInteger();
+            CompletableFuture<Integer> failed = calls.call(() -> {
+                tries.incrementAndGet();
+                throw new AssertionError("broken");
+            });
+            try {
+                failed.join();
+                fail("an Error was swallowed");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            assertEquals(1, tries.get());
+            assertEquals(4, (int) calls.call(() -> 2 * 2).join());
+        }
+    }
+
+    /**
+     * Test that closing fails the calls waiting to run, interrupts the one running,
+     * and that calls made after fail rather than throw.
+     */
+    @Test(timeout = 10000)
+    public void testClose() throws Exception {
+        RemoteCalls calls = new RemoteCalls("test", 1, 0, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CompletableFuture<Integer> first = calls.call(() -> {
+            running.countDown();
+            Thread.sleep(60_000);
+            return 1;
+        });
+        CompletableFuture<Integer> second = calls.call(() -> 2);
+        running.await();
+        calls.close();
+
+        assertFailsWith(InterruptedException.class, first);
+        assertFailsWith(RejectedExecutionException.class, second);
+        assertFailsWith(RejectedExecutionException.class, calls.call(() -> 3));
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<?> future) {
+        try {
+            future.join();
+            fail("should have failed with " + expected.getSimpleName());
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+        }
+    }
+}
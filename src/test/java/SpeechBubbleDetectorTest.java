@@ -0,0 +1,85 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeechBubbleDetectorTest {
+    private BufferedImage img;
+    private SpeechBubbleDetector detector;
+
+    /**
+     * Black page with one white, off-center rectangular speech bubble
+     * from (20, 10) to (119, 59), with a black "line of text" in it.
+     */
+    @Before
+    public void setup() {
+        img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(Color.WHITE);
+        g.fillRect(20, 10, 100, 50);
+        g.setColor(Color.BLACK);
+        g.fillRect(30, 20, 10, 15);
+        g.dispose();
+        detector = new SpeechBubbleDetector(img);
+    }
+
+    private boolean contains(Rectangle outer, Rectangle inner) {
+        return outer.xmin() <= inner.xmin() && outer.ymin() <= inner.ymin()
+                && outer.xmax() >= inner.xmax() && outer.ymax() >= inner.ymax();
+    }
+
+    /**
+     * Test the method getLargestExpansion(Rectangle):
+     *  - the result contains the text box
+     *  - the result does not leave the bubble
+     *  - edges grow by different amounts
+     */
+    @Test
+    public void testGetLargestExpansion() {
+        Rectangle text = new Rectangle(29, 19, 40, 36);
+        Rectangle expanded = detector.getLargestExpansion(text);
+
+        assertTrue(contains(expanded, text));
+        assertTrue(contains(new Rectangle(20, 10, 119, 59), expanded));
+        assertEquals(new Rectangle(20, 10, 119, 59).area(), expanded.area());
+    }
+
+    /**
+     * Test the method getMaximalRectangle(Rectangle):
+     *  - rectangular bubble: the whole bubble
+     *  - elliptical bubble: contains the text box, stays inside the bubble,
+     *      and is at least as large as the greedy expansion
+     */
+    @Test
+    public void testGetMaximalRectangle() {
+        Rectangle text = new Rectangle(29, 19, 40, 36);
+        assertEquals(
+                new Rectangle(20, 10, 119, 59).area(),
+                detector.getMaximalRectangle(text).area()
+        );
+
+        BufferedImage oval = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = oval.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillOval(10, 5, 180, 90);
+        g.dispose();
+        SpeechBubbleDetector ovalDetector = new SpeechBubbleDetector(oval);
+
+        Rectangle off = new Rectangle(60, 40, 80, 50);
+        Rectangle maximal = ovalDetector.getMaximalRectangle(off);
+        Rectangle greedy = ovalDetector.getLargestExpansion(off);
+        assertTrue(contains(maximal, off));
+        assertTrue(maximal.area() >= greedy.area());
+        for (int x = maximal.xmin(); x <= maximal.xmax(); x++) {
+            for (int y = maximal.ymin(); y <= maximal.ymax(); y++) {
+                assertEquals(0xFFFFFF, oval.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StagedPipelineTest {
+
+    /**
+     * Test that every item goes through every stage once, except the ones a stage fails on,
+     * and that no stage ever runs on more items at once than it has threads.
+     */
+    @Test
+    public void testRun() throws Exception {
+        final AtomicInteger inSquare = new AtomicInteger();
+        final AtomicInteger mostInSquare = new AtomicInteger();
+
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(2)
+                .addStage("double", 3, x -> 2 * x)
+                .addStage("square", 2, x -> {
+                    int now = inSquare.incrementAndGet();
+                    mostInSquare.accumulateAndGet(now, Math::max);
+                    Thread.sleep(1);
+                    inSquare.decrementAndGet();
+                    return x * x;
+                })
+                .addStage("reject", 1, x -> {
+                    if (x % 3 == 0) {
+                        throw new IllegalArgumentException("multiple of 3");
+                    }
+                    return x;
+                });
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        List<Integer> done = new ArrayList<>(pipeline.run(items));
+        Collections.sort(done);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 != 0) {
+                expected.add(4 * i * i);
+            }
+        }
+        assertEquals(expected, done);
+        assertEquals(34, pipeline.getFailures());
+        assertTrue(mostInSquare.get() <= 2);
+    }
+
+    /**
+     * Test that a stage returning null or throwing an Error fails just that item,
+     * and the run still finishes.
+     */
+    @Test(timeout = 10000)
+    public void testNullAndError() throws Exception {
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(2)
+                .addStage("odd", 2, x -> {
+                    if (x % 2 == 0) {
+                        return null;
+                    }
+                    return x;
+                })
+                .addStage("assert", 2, x -> {
+                    if (x % 3 == 0) {
+                        throw new AssertionError("multiple of 3");
+                    }
+                    return x;
+                });
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            items.add(i);
+        }
+        List<Integer> done = new ArrayList<>(pipeline.run(items));
+        Collections.sort(done);
+        assertEquals(Arrays.asList(1, 5, 7, 11), done);
+        assertEquals(8, pipeline.getFailures());
+    }
+
+    /**
+     * Test that an async stage passes every item on once it's done, drops the ones that fail,
+     * and never has more in flight than it's allowed.
+     */
+    @Test
+    public void testAsyncStage() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        ScheduledExecutorService remote = Executors.newScheduledThreadPool(4);
+
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(2)
+                .addStage("double", 2, x -> 2 * x)
+                .addAsyncStage("remote", 5, x -> {
+                    mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    CompletableFuture<Integer> result = new CompletableFuture<>();
+                    remote.schedule(() -> {
+                        inFlight.decrementAndGet();
+                        if (x % 10 == 0) {
+                            result.completeExceptionally(new IllegalStateException("multiple of 5"));
+                        }
+                        else {
+                            result.complete(x + 1);
+                        }
+                    }, x % 7, TimeUnit.MILLISECONDS);
+                    return result;
+                })
+                .addStage("negate", 1, x -> -x);
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        List<Integer> done = new ArrayList<>(pipeline.run(items));
+        remote.shutdown();
+        Collections.sort(done);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 99; i >= 0; i--) {
+            if (i % 5 != 0) {
+                expected.add(-(2 * i + 1));
+            }
+        }
+        assertEquals(expected, done);
+        assertEquals(20, pipeline.getFailures());
+        assertTrue(mostInFlight.get() <= 5);
+    }
+
+    /**
+     * Test that completing an async stage's item returns at once, even while the next stage is
+     * too busy to take it: the remote service's threads aren't held up by our queues
+     */
+    @Test(timeout = 10000)
+    public void testAsyncStageDoesNotBlockCompletion() throws Exception {
+        final List<CompletableFuture<Integer>> started = Collections.synchronizedList(new ArrayList<>());
+        final AtomicLong longestComplete = new AtomicLong();
+
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(1)
+                .addAsyncStage("remote", 10, x -> {
+                    CompletableFuture<Integer> result = new CompletableFuture<>();
+                    started.add(result);
+                    return result;
+                })
+                .addStage("slow", 1, x -> {
+                    Thread.sleep(200);
+                    return x;
+                });
+
+        Thread remote = new Thread(() -> {
+            while (started.size() < 5) {
+                Thread.yield();
+            }
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                started.get(i).complete(i);
+                longestComplete.accumulateAndGet(System.nanoTime() - start, Math::max);
+            }
+        });
+        remote.start();
+        List<Integer> done = new ArrayList<>(pipeline.run(Arrays.asList(0, 1, 2, 3, 4)));
+        remote.join();
+        Collections.sort(done);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), done);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(longestComplete.get()) < 100);
+    }
+}
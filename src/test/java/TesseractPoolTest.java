@@ -0,0 +1,77 @@
+import net.sourceforge.tess4j.ITessAPI;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TesseractPoolTest {
+
+    /**
+     * Pool of engines with no native instance behind them, recording the ones it creates.
+     */
+    private static class StubPool extends TesseractPool {
+        final List<TesseractEngine> engines = new ArrayList<>();
+
+        StubPool(int size) {
+            super("./", size);
+        }
+
+        @Override
+        synchronized TesseractEngine newEngine(String language) {
+            TesseractEngine engine = new TesseractEngine(language, (ITessAPI.TessBaseAPI) null);
+            engines.add(engine);
+            return engine;
+        }
+    }
+
+    /**
+     * Test that at most size engines are created per language, that a thread asking for one
+     * more waits for one to be released and gets that one, and that borrowing from a closed pool fails.
+     */
+    @Test(timeout = 10000)
+    public void testBorrowRelease() throws Exception {
+        StubPool pool = new StubPool(2);
+        TesseractEngine first = pool.borrow("jpn");
+        TesseractEngine second = pool.borrow("jpn");
+        assertNotSame(first, second);
+        TesseractEngine vertical = pool.borrow("jpn_vert");
+        assertEquals("jpn_vert", vertical.getLanguage());
+        assertEquals(3, pool.engines.size());
+
+        CompletableFuture<TesseractEngine> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow("jpn");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            third.get(300, TimeUnit.MILLISECONDS);
+            fail("borrowed more engines than the pool holds");
+        } catch (TimeoutException e) {
+            // still waiting, as it should
+        }
+        pool.release(second);
+        assertSame(second, third.get());
+        assertEquals(3, pool.engines.size());
+
+        pool.release(first);
+        pool.close();
+        try {
+            pool.borrow("jpn");
+            fail("borrowed from a closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // engines still out when the pool closed can be given back
+        pool.release(vertical);
+    }
+}
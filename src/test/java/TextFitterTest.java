@@ -0,0 +1,132 @@
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TextFitterTest {
+
+    /**
+     * Test that fitting with memoized widths gives the same font size and line breaks
+     * as measuring every string, on random text and boxes
+     */
+    @Test
+    public void testSameAsMeasuring() {
+        Font font = FontRegistry.getShared().getFont("animeace");
+        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFG.,!?'-é…   \t";
+        Random random = new Random(18);
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder("W");
+            int length = random.nextInt(100);
+            for (int i = 0; i < length; i++) {
+                text.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            Rectangle box = new Rectangle(0, 0, 5 + random.nextInt(250), 5 + random.nextInt(250));
+
+            Graphics2D g2 = graphics(font);
+            TextProcessor fast = new TextProcessor(g2);
+            assertNotNull(TextFitter.forText(g2, text.toString()));
+            fast.resizeToFit(text.toString(), box);
+
+            TextProcessor measured = new TextProcessor(graphics(font));
+            int vSize = measured.verticalFontSizeLimit(text.toString(), box);
+            int hSize = measured.horizontalFontSizeLimit(text.toString(), box);
+            assertEquals(Math.min(vSize, hSize), fast.getFont().getSize());
+
+            assertArrayEquals(
+                    new TextProcessor(graphics(fast.getFont())).measuredLines(text.toString(), box.width()),
+                    fast.splitIntoLines(text.toString(), box.width())
+            );
+        }
+    }
+
+    /**
+     * Test that text whose width isn't the sum of its characters' is left to be measured
+     */
+    @Test
+    public void testFallback() {
+        Graphics2D g2 = graphics(FontRegistry.getShared().getFont("animeace"));
+        assertNull(TextFitter.forText(g2, "   "));
+        assertNull(TextFitter.forText(g2, "مرحبا"));
+        g2.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        assertNull(TextFitter.forText(g2, "Ba-dump!?"));
+    }
+
+    /**
+     * Test that balanced lines keep the words in order, never take more lines than greedy ones,
+     * never overflow unless a word is too wide on its own, and are at least as even
+     */
+    @Test
+    public void testBalancedLines() {
+        Font font = FontRegistry.getShared().getFont("animeace").deriveFont(Font.PLAIN, 14);
+        Random random = new Random(19);
+        String[] vocabulary = "a an the cat sat on mat quickly extraordinarily bubble !? ...".split(" ");
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + random.nextInt(30);
+            for (int i = 0; i < length; i++) {
+                text.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+            }
+            int lineWidth = 20 + random.nextInt(300);
+
+            TextProcessor greedy = new TextProcessor(graphics(font));
+            TextProcessor balanced = new TextProcessor(graphics(font));
+            balanced.setLineBreaking(LineBreaking.BALANCED);
+            String[] greedyLines = greedy.splitIntoLines(text.toString(), lineWidth);
+            String[] balancedLines = balanced.splitIntoLines(text.toString(), lineWidth);
+
+            assertEquals(text.toString().trim(), String.join(" ", balancedLines));
+            assertTrue(balancedLines.length <= greedyLines.length);
+            for (String line : balancedLines) {
+                assertTrue(line.indexOf(' ') < 0 || balanced.lineWidth(line) <= lineWidth);
+            }
+            if (balancedLines.length == greedyLines.length && fits(greedy, greedyLines, lineWidth)) {
+                assertTrue(raggedness(balanced, balancedLines, lineWidth) <= raggedness(greedy, greedyLines, lineWidth));
+            }
+        }
+    }
+
+    /**
+     * Test that the same text is split into two even lines rather than a full one and a short one
+     */
+    @Test
+    public void testBalancedExample() {
+        Graphics2D g2 = graphics(FontRegistry.getShared().getFont("animeace").deriveFont(Font.PLAIN, 12));
+        TextProcessor tP = new TextProcessor(g2);
+        String text = "aaaa bbbb cccc dddd eeee";
+        int lineWidth = tP.lineWidth("aaaa bbbb cccc dddd");
+        assertArrayEquals(new String[] {"aaaa bbbb cccc dddd", "eeee"}, tP.splitIntoLines(text, lineWidth));
+        tP.setLineBreaking(LineBreaking.BALANCED);
+        assertArrayEquals(new String[] {"aaaa bbbb", "cccc dddd eeee"}, tP.splitIntoLines(text, lineWidth));
+    }
+
+    private static boolean fits(TextProcessor tP, String[] lines, int lineWidth) {
+        for (String line : lines) {
+            if (tP.lineWidth(line) > lineWidth) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long raggedness(TextProcessor tP, String[] lines, int lineWidth) {
+        long sum = 0;
+        for (String line : lines) {
+            long slack = lineWidth - tP.lineWidth(line);
+            sum += slack * slack;
+        }
+        return sum;
+    }
+
+    private static Graphics2D graphics(Font font) {
+        Graphics2D g2 = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+        g2.setFont(font);
+        return g2;
+    }
+}
@@ -1,13 +1,23 @@
 import com.google.cloud.vision.v1.*;
+import com.google.protobuf.ByteString;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TextRecognizerGoogleTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static TextRecognizerGoogle recognizerJPN;
 
     @Before
@@ -183,4 +193,172 @@ public class TextRecognizerGoogleTest {
         ));
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test the method joinAllParagraphs(List<Paragraph>, BubbleSegmentation):
+     * paragraphs far apart in the same bubble are joined, ones in different bubbles are not
+     */
+    @Test
+    public void testJoinAllParagraphsInBubbles() {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        java.awt.Graphics2D g = img.createGraphics();
+        g.setColor(java.awt.Color.BLACK);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(java.awt.Color.WHITE);
+        g.fillRect(10, 10, 80, 80);
+        g.fillRect(120, 10, 60, 80);
+        g.dispose();
+
+        List<Word> w1 = toWords("おはよう");
+        List<Word> w2 = toWords("ございます");
+        List<Word> w3 = toWords("こんにちは");
+        List<Paragraph> paragraphs = Arrays.asList(
+                toParagraph(toQuad(20, 20, 30, 20, 30, 30, 20, 30), w1),
+                toParagraph(toQuad(60, 70, 70, 70, 70, 80, 60, 80), w2),
+                toParagraph(toQuad(130, 20, 140, 20, 140, 30, 130, 30), w3));
+
+        assertEquals(3, recognizerJPN.joinAllParagraphs(paragraphs).size());
+        List<Paragraph> joined = recognizerJPN.joinAllParagraphs(paragraphs, new BubbleSegmentation(img));
+        assertEquals(2, joined.size());
+        List<Word> bothWords = new ArrayList<>(w1);
+        bothWords.addAll(w2);
+        assertEquals(bothWords, joined.get(0).getWordsList());
+        assertEquals(w3, joined.get(1).getWordsList());
+    }
+
+    /**
+     * Test the method detectDocumentTextFromBytes(List<ByteString>) against a fake Vision service:
+     *  - pages are sent in as few requests as allowed, through one client
+     *  - results come back per page, in order
+     *  - a failed page gets an empty list without affecting the others
+     */
+    @Test
+    public void testDetectDocumentTextBatched() throws Exception {
+        FakeImageAnnotatorStub stub = new FakeImageAnnotatorStub();
+        List<ByteString> images = new ArrayList<>();
+        for (int i=0; i<20; i++) {
+            images.add(ByteString.copyFromUtf8(i == 17 ? "error" + i : "page" + i));
+        }
+
+        List<List<Paragraph>> pages;
+        try (TextRecognizerGoogle recognizer =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            pages = recognizer.detectDocumentTextFromBytes(images);
+        }
+
+        assertEquals(2, stub.requests.size());
+        assertEquals(16, stub.requests.get(0).getRequestsCount());
+        assertEquals(4, stub.requests.get(1).getRequestsCount());
+        assertTrue(stub.isShutdown());
+
+        assertEquals(20, pages.size());
+        for (int i=0; i<20; i++) {
+            if (i == 17) {
+                assertTrue(pages.get(i).isEmpty());
+                continue;
+            }
+            assertEquals(1, pages.get(i).size());
+            assertEquals(toWords("page" + i), pages.get(i).get(0).getWordsList());
+        }
+    }
+
+    /**
+     * Test that a warm re-run does no OCR at all, and that failed pages are not cached
+     */
+    @Test
+    public void testDetectDocumentTextCached() throws Exception {
+        OcrCache cache = new OcrCache(folder.getRoot(), 1 << 20);
+        List<ByteString> images = new ArrayList<>();
+        for (int i=0; i<5; i++) {
+            images.add(ByteString.copyFromUtf8(i == 3 ? "error" + i : "page" + i));
+        }
+
+        FakeImageAnnotatorStub stub = new FakeImageAnnotatorStub();
+        List<List<Paragraph>> cold;
+        try (TextRecognizerGoogle recognizer =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            recognizer.setOcrCache(cache);
+            cold = recognizer.detectDocumentTextFromBytes(images);
+        }
+        assertEquals(1, stub.requests.size());
+        assertEquals(5, stub.requests.get(0).getRequestsCount());
+
+        stub = new FakeImageAnnotatorStub();
+        List<List<Paragraph>> warm;
+        try (TextRecognizerGoogle recognizer =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            recognizer.setOcrCache(cache);
+            warm = recognizer.detectDocumentTextFromBytes(images);
+        }
+        assertEquals(cold, warm);
+        assertEquals(1, stub.requests.size());
+        assertEquals(1, stub.requests.get(0).getRequestsCount());
+        assertEquals(4, cache.getHits());
+
+        assertTrue( ! OcrCache.key(images.get(0), "google", Language.JPN)
+                .equals(OcrCache.key(images.get(0), "google", Language.EN)) );
+    }
+
+    /**
+     * Test that paragraphs read from a region of an image are placed on the page
+     */
+    @Test
+    public void testGetParagraphsFromImageRegion() throws Exception {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        FakeImageAnnotatorStub stub = new FakeImageAnnotatorStub();
+        List<Paragraph> paragraphs;
+        try (TextRecognizerGoogle recognizer =
+                     new TextRecognizerGoogle(Language.JPN, ImageAnnotatorClient.create(stub))) {
+            paragraphs = recognizer.getParagraphsFromImage(img, new Rectangle(30, 40, 250, 89));
+        }
+
+        assertEquals(1, paragraphs.size());
+        Rectangle box = Rectangle.fromBoundingPoly(paragraphs.get(0).getBoundingBox());
+        assertEquals(30, box.xmin());
+        assertEquals(40, box.ymin());
+        assertEquals(40, box.xmax());
+        assertEquals(60, box.ymax());
+
+        // only the region, clamped to the image, was sent
+        ByteString sent = stub.requests.get(0).getRequests(0).getImage().getContent();
+        BufferedImage crop = ImageIO.read(sent.newInput());
+        assertEquals(170, crop.getWidth());
+        assertEquals(50, crop.getHeight());
+    }
+
+    /**
+     * Test that batches stay within both the image count and the total size limits,
+     * in order, with an oversized image sent by itself.
+     */
+    @Test
+    public void testBatches() {
+        ByteString small = ByteString.copyFrom(new byte[1000]);
+        ByteString large = ByteString.copyFrom(new byte[TextRecognizerGoogle.MAX_BYTES_PER_REQUEST / 3]);
+        ByteString huge = ByteString.copyFrom(new byte[TextRecognizerGoogle.MAX_BYTES_PER_REQUEST + 1]);
+        List<ByteString> images = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            images.add(small);
+            indices.add(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            images.add(large);
+            indices.add(images.size() - 1);
+        }
+        images.add(huge);
+        indices.add(images.size() - 1);
+        images.add(small);
+        indices.add(images.size() - 1);
+
+        List<List<Integer>> batches = TextRecognizerGoogle.batches(images, indices);
+        List<Integer> sizes = new ArrayList<>();
+        List<Integer> flat = new ArrayList<>();
+        for (List<Integer> batch : batches) {
+            sizes.add(batch.size());
+            flat.addAll(batch);
+        }
+        assertEquals(indices, flat);
+        // 16 small; 4 small + 2 large; 2 large; huge alone; small
+        assertEquals(Arrays.asList(16, 6, 2, 1, 1), sizes);
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TranslationBatcherTest {
+
+    /**
+     * Backend recording every request, translating a text to itself upper cased,
+     * taking a little while so requests overlap.
+     */
+    private static class RecordingBackend implements TranslationBackend {
+        final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage) {
+            requests.add(new ArrayList<>(texts));
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> translations = new ArrayList<>();
+            for (String text : texts) {
+                translations.add(text.toUpperCase());
+            }
+            return translations;
+        }
+    }
+
+    /**
+     * Test that texts asked for at about the same time by different callers go out in one request,
+     * that a text already on its way isn't sent again, and that everyone gets their translations.
+     */
+    @Test
+    public void testCoalesceAndBatch() {
+        RecordingBackend backend = new RecordingBackend();
+        Translator translator = new Translator(backend);
+        try (RemoteCalls calls = new RemoteCalls("test", 4, 0, 1)) {
+            translator.setRemoteCalls(calls);
+            translator.setBatchWindow(100);
+
+            CompletableFuture<List<String>> first = translator.translateAsync(Arrays.asList("a", "b"), "ja", "en");
+            CompletableFuture<List<String>> second = translator.translateAsync(Arrays.asList("b", "c"), "ja", "en");
+            assertEquals(Arrays.asList("A", "B"), first.join());
+            assertEquals(Arrays.asList("B", "C"), second.join());
+            assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), backend.requests);
+
+            // while "d" is on its way, asking again doesn't send it again
+            backend.requests.clear();
+            translator.setBatchWindow(0);
+            CompletableFuture<List<String>> sent = translator.translateAsync(Arrays.asList("d"), "ja", "en");
+            while (backend.requests.isEmpty()) {
+                Thread.yield();
+            }
+            CompletableFuture<List<String>> again = translator.translateAsync(Arrays.asList("d"), "ja", "en");
+            assertEquals(Arrays.asList("D"), sent.join());
+            assertEquals(Arrays.asList("D"), again.join());
+            assertEquals(1, backend.requests.size());
+        }
+    }
+
+    /**
+     * Test that a batch goes out as soon as it's full, without waiting for its window.
+     */
+    @Test
+    public void testFullBatch() {
+        List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+        TranslationBatcher batcher = new TranslationBatcher(60_000, (texts, source, target) -> {
+            requests.add(new ArrayList<>(texts));
+            return CompletableFuture.completedFuture(new ArrayList<>(texts));
+        });
+
+        List<CompletableFuture<String>> translations = new ArrayList<>();
+        for (int i = 0; i < Translator.MAX_STRINGS_PER_REQUEST; i++) {
+            translations.add(batcher.translate("text " + i, "ja", "en"));
+        }
+        assertEquals(1, requests.size());
+        assertEquals(Translator.MAX_STRINGS_PER_REQUEST, requests.get(0).size());
+        for (int i = 0; i < translations.size(); i++) {
+            assertTrue(translations.get(i).isDone());
+            assertEquals("text " + i, translations.get(i).join());
+        }
+    }
+
+    /**
+     * Test that everyone waiting on a batch hears of it when fewer translations come back than texts went out.
+     */
+    @Test(timeout = 10000)
+    public void testMissingTranslations() {
+        TranslationBatcher batcher = new TranslationBatcher(10, (texts, source, target) ->
+                CompletableFuture.completedFuture(new ArrayList<>(texts.subList(1, texts.size()))));
+        CompletableFuture<String> first = batcher.translate("a", "ja", "en");
+        CompletableFuture<String> second = batcher.translate("b", "ja", "en");
+        CompletableFuture<String> coalesced = batcher.translate("b", "ja", "en");
+        for (CompletableFuture<String> translation : Arrays.asList(first, second, coalesced)) {
+            try {
+                translation.join();
+                fail("a translation came back for a text with none");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    /**
+     * Test that each caller's translation completes in the Metrics scope it asked from,
+     * coalesced callers included, whatever thread the request comes back on.
+     */
+    @Test(timeout = 10000)
+    public void testCallerScopes() {
+        TranslationBatcher batcher = new TranslationBatcher(10, (texts, source, target) ->
+                CompletableFuture.supplyAsync(() -> new ArrayList<>(texts)));
+        Metrics.setEnabled(true);
+        try {
+            List<Metrics> pages = new ArrayList<>();
+            List<CompletableFuture<String>> translations = new ArrayList<>();
+            for (String text : Arrays.asList("a", "b", "b")) {
+                Metrics page = new Metrics();
+                Metrics previous = Metrics.enter(page);
+                translations.add(batcher.translate(text, "ja", "en").thenApply(t -> {
+                    Metrics.count("test.translated", 1);
+                    return t;
+                }));
+                Metrics.enter(previous);
+                pages.add(page);
+            }
+            for (int i = 0; i < pages.size(); i++) {
+                translations.get(i).join();
+                assertEquals("page " + i, 1, pages.get(i).getCount("test.translated"));
+            }
+        } finally {
+            Metrics.setEnabled(false);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TranslationCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that texts are looked up by normalized text and language pair
+     */
+    @Test
+    public void testNormalize() {
+        TranslationCache cache = new TranslationCache(1000);
+        cache.put("ドキドキ！？", "ja", "en", "Ba-dump!?");
+        assertEquals("Ba-dump!?", cache.get("ドキドキ!?", "ja", "en"));
+        assertEquals("Ba-dump!?", cache.get(" ﾄﾞｷﾄﾞｷ！？\n", "ja", "en"));
+        assertNull(cache.get("ドキドキ！？", "ja", "fr"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Test that the least recently used translations are dropped from memory first
+     */
+    @Test
+    public void testEviction() {
+        TranslationCache cache = new TranslationCache(3 * ("ja>en\ta".length() + 1));
+        cache.put("a", "ja", "en", "A");
+        cache.put("b", "ja", "en", "B");
+        cache.put("c", "ja", "en", "C");
+        cache.get("a", "ja", "en");
+        cache.put("d", "ja", "en", "D");
+        assertEquals("A", cache.get("a", "ja", "en"));
+        assertNull(cache.get("b", "ja", "en"));
+        assertEquals(3, cache.size());
+    }
+
+    /**
+     * Test that translations survive a restart, and that a record cut short is dropped
+     */
+    @Test
+    public void testPersistence() throws Exception {
+        File log = new File(folder.getRoot(), "cache.log");
+        try (TranslationCache cache = new TranslationCache(1000, log)) {
+            cache.put("こんにちは", "ja", "en", "Hello");
+            cache.put("さようなら", "ja", "en", "Goodbye");
+        }
+        long length = log.length();
+        try (RandomAccessFile f = new RandomAccessFile(log, "rw")) {
+            f.setLength(length - 2);
+        }
+
+        try (TranslationCache cache = new TranslationCache(0, log)) {
+            assertEquals("Hello", cache.get("こんにちは", "ja", "en"));
+            assertNull(cache.get("さようなら", "ja", "en"));
+            assertEquals(1, cache.getDiskHits());
+            cache.put("さようなら", "ja", "en", "Bye");
+        }
+        try (TranslationCache cache = new TranslationCache(1000, log)) {
+            assertEquals("Hello", cache.get("こんにちは", "ja", "en"));
+            assertEquals("Bye", cache.get("さようなら", "ja", "en"));
+        }
+    }
+
+    /**
+     * Test that many translations are all found back from the log, and none is written twice
+     */
+    @Test
+    public void testLogIndex() throws Exception {
+        File log = new File(folder.getRoot(), "cache.log");
+        try (TranslationCache cache = new TranslationCache(0, log)) {
+            for (int i = 0; i < 1000; i++) {
+                cache.put("text " + i, "ja", "en", "translation " + i);
+            }
+            long length = log.length();
+            cache.put("text 7", "ja", "en", "translation 7");
+            assertEquals(length, log.length());
+        }
+        try (TranslationCache cache = new TranslationCache(0, log)) {
+            assertEquals(1000, cache.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("translation " + i, cache.get("text " + i, "ja", "en"));
+            }
+            assertNull(cache.get("text 1000", "ja", "en"));
+            assertEquals(1000, cache.getDiskHits());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TranslatorTest {
+
+    /**
+     * Translator that never leaves the machine: a text translates to itself, HTML escaped
+     * the way the API escapes, and every request is recorded.
+     */
+    private static class RecordingTranslator extends Translator {
+        final List<List<String>> requests = new ArrayList<>();
+
+        RecordingTranslator() {
+            super((com.google.cloud.translate.Translate) null);
+        }
+
+        @Override
+        protected List<String> requestTranslations(List<String> texts, String sourceLanguage, String targetLanguage) {
+            requests.add(new ArrayList<>(texts));
+            List<String> escaped = new ArrayList<>();
+            for (String text : texts) {
+                escaped.add(text.replace("&", "&amp;").replace("'", "&#39;"));
+            }
+            return escaped;
+        }
+    }
+
+    /**
+     * Test that
+     *  - many texts go out in few requests, within the per-request limits
+     *  - results come back in order, unescaped
+     *  - blank texts are not sent
+     */
+    @Test
+    public void testTranslateBatched() {
+        RecordingTranslator translator = new RecordingTranslator();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            texts.add("it's " + i + " & more");
+        }
+        texts.set(7, "  ");
+
+        List<String> translations = translator.translateJapaneseToEnglish(texts);
+        assertEquals(texts, translations);
+        assertEquals(3, translator.requests.size());
+        assertEquals(128, translator.requests.get(0).size());
+        assertEquals(299, translator.requests.get(0).size()
+                + translator.requests.get(1).size()
+                + translator.requests.get(2).size());
+
+        // one long text goes in a request by itself
+        translator.requests.clear();
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 6000; i++) {
+            longText.append('x');
+        }
+        translations = translator.translateJapaneseToEnglish(
+                Arrays.asList("a", longText.toString(), "b"));
+        assertEquals(Arrays.asList("a", longText.toString(), "b"), translations);
+        assertEquals(3, translator.requests.size());
+    }
+
+    /**
+     * Test that cached and repeated texts are not sent, and the requests saved are counted
+     */
+    @Test
+    public void testTranslateCached() {
+        RecordingTranslator translator = new RecordingTranslator();
+        translator.setCache(new TranslationCache(10000));
+
+        assertEquals(Arrays.asList("a", "b", "a"),
+                translator.translateJapaneseToEnglish(Arrays.asList("a", "b", "a")));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), translator.requests);
+
+        assertEquals(Arrays.asList("b", "c"),
+                translator.translateJapaneseToEnglish(Arrays.asList("b", "c")));
+        assertEquals(Arrays.asList("c"), translator.requests.get(1));
+        assertEquals(Arrays.asList("a"),
+                translator.translateJapaneseToEnglish(Arrays.asList("a")));
+        assertEquals(2, translator.requests.size());
+        assertEquals(2, translator.getCache().getRequestsMade());
+        assertEquals(1, translator.getCache().getRequestsSaved());
+
+        // texts the same once normalized go out once, and all get that translation
+        translator.requests.clear();
+        assertEquals(Arrays.asList("ドキドキ！？", "ドキドキ！？", "b"),
+                translator.translateJapaneseToEnglish(Arrays.asList("ドキドキ！？", " ﾄﾞｷﾄﾞｷ!? ", "b")));
+        assertEquals(Arrays.asList(Arrays.asList("ドキドキ！？")), translator.requests);
+    }
+}